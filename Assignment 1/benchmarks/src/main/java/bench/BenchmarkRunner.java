@@ -0,0 +1,37 @@
+/*
+ * Entry point of benchmarks.jar. With no arguments it runs the codec benchmarks once and the dictionary benchmarks
+ * at 1, 2, 4, ... threads up to the number of cores, all with the GC profiler, so the results show how throughput
+ * scales and what each operation allocates; any arguments go to the regular JMH command line.
+ */
+
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        new Runner(new OptionsBuilder()
+                .include("bench\\.CodecBenchmark")
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            Options options = new OptionsBuilder()
+                    .include("bench\\.DictionaryBenchmark")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}
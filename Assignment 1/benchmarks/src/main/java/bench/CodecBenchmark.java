@@ -0,0 +1,65 @@
+/*
+ * Measures encoding and decoding one request and one response, the work every message costs the server on top of
+ * the dictionary itself. "gson" is the reflective Gson round trip the server used to do per message, for comparison
+ * with the hand-written JSON and binary codecs that replaced it.
+ */
+
+package bench;
+
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"gson", "json", "binary"})
+    public String codec;
+
+    private final Gson gson = new Gson();
+    private Object codecInstance;
+    private int framingBefore; // the length prefix, which decoding skips
+    private int framingAfter;  // the newline
+    private Object request;
+    private Object response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        codecInstance = codec.equals("binary") ? DictionaryHandles.BINARY_CODEC : DictionaryHandles.JSON_CODEC;
+        framingBefore = codec.equals("binary") ? Integer.BYTES : 0;
+        framingAfter = codec.equals("binary") ? 0 : 1;
+        request = DictionaryHandles.NEW_REQUEST.invokeExact("update", "serendipity",
+                "the occurrence of events by chance", "the occurrence of events by chance in a happy way");
+        response = DictionaryHandles.NEW_RESPONSE.invokeExact(42L,
+                "the occurrence of events by chance in a happy way\n\"a fortunate stroke of serendipity\"");
+    }
+
+    @Benchmark
+    public Object requestRoundTrip() throws Throwable {
+        if (codec.equals("gson")) {
+            byte[] frame = (gson.toJson(request) + "\n").getBytes(StandardCharsets.UTF_8);
+            return gson.fromJson(new String(frame, 0, frame.length - 1, StandardCharsets.UTF_8),
+                    DictionaryHandles.REQUEST);
+        }
+        byte[] frame = (byte[]) DictionaryHandles.ENCODE_REQUEST.invokeExact(codecInstance, request);
+        return DictionaryHandles.DECODE_REQUEST.invokeExact(codecInstance, frame, framingBefore,
+                frame.length - framingBefore - framingAfter);
+    }
+
+    @Benchmark
+    public Object responseRoundTrip() throws Throwable {
+        if (codec.equals("gson")) {
+            byte[] frame = (gson.toJson(response) + "\n").getBytes(StandardCharsets.UTF_8);
+            return gson.fromJson(new String(frame, 0, frame.length - 1, StandardCharsets.UTF_8),
+                    DictionaryHandles.RESPONSE);
+        }
+        byte[] frame = (byte[]) DictionaryHandles.ENCODE_RESPONSE.invokeExact(codecInstance, response);
+        return DictionaryHandles.DECODE_RESPONSE.invokeExact(codecInstance, frame, framingBefore,
+                frame.length - framingBefore - framingAfter);
+    }
+}
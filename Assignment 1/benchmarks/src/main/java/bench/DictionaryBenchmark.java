@@ -0,0 +1,111 @@
+/*
+ * Measures Dictionary.query, add and update on a preloaded dictionary, with the write-ahead log on local disk.
+ * Run it at 1 to N threads (BenchmarkRunner does by default): query should scale with the cores, while writes show
+ * the cost of the per-word locks and of waiting for the log. Zipf keys concentrate the threads on a few hot words.
+ */
+
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DictionaryBenchmark {
+    @Param({"100000"})
+    public int words;
+
+    @Param({"uniform", "zipf"})
+    public String keys;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private Path directory;
+    private Zipf zipf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        directory = Files.createTempDirectory("dictionary-benchmark");
+        Path file = directory.resolve("dictionary.json");
+        // Written as a snapshot and loaded, so the preload does not pay for a log flush per word
+        try (Writer out = Files.newBufferedWriter(file)) {
+            out.write('{');
+            for (int i = 0; i < words; i++) {
+                out.write((i > 0 ? "," : "") + "\"" + word(i) + "\":[\"" + definition(i) + "\"]");
+            }
+            out.write('}');
+        }
+        Object dictionary = DictionaryHandles.NEW_DICTIONARY.invokeExact(file.toString());
+        DictionaryHandles.LOAD.invokeExact(dictionary);
+        zipf = keys.equals("zipf") ? new Zipf(words, 1.0) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        SplittableRandom random;
+        String prefix;
+        int added;
+
+        @Setup(Level.Trial)
+        public void setUp(DictionaryBenchmark benchmark) {
+            int thread = benchmark.threads.getAndIncrement();
+            random = new SplittableRandom(thread);
+            prefix = "new" + thread + "-";
+        }
+    }
+
+    @Benchmark
+    public Object query(Cursor cursor) throws Throwable {
+        return DictionaryHandles.QUERY.invokeExact(word(next(cursor)));
+    }
+
+    // Every call adds a word no other thread touches, so this measures the log and the indexes, not the locks
+    @Benchmark
+    public boolean add(Cursor cursor) throws Throwable {
+        return (boolean) DictionaryHandles.ADD.invokeExact(cursor.prefix + cursor.added++, "a freshly added word");
+    }
+
+    // Rewrites a definition with itself, so the dictionary stays the same size however long it runs
+    @Benchmark
+    public Object update(Cursor cursor) throws Throwable {
+        int index = next(cursor);
+        return DictionaryHandles.UPDATE.invokeExact(word(index), definition(index), definition(index));
+    }
+
+    private int next(Cursor cursor) {
+        return zipf != null ? zipf.next(cursor.random) : cursor.random.nextInt(words);
+    }
+
+    private static String word(int index) {
+        return "word" + index;
+    }
+
+    private static String definition(int index) {
+        return "the meaning of word number " + index;
+    }
+}
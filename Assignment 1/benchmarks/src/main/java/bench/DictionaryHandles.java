@@ -0,0 +1,86 @@
+/*
+ * The dictionary classes live in the default package, which a named package (and JMH needs one) cannot import.
+ * These handles are resolved once; held in static finals the JIT treats them like direct calls.
+ */
+
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+final class DictionaryHandles {
+    static final MethodHandle NEW_DICTIONARY;  // (String fileName) -> dictionary
+    static final MethodHandle LOAD;            // (dictionary) -> void
+    static final MethodHandle QUERY;           // (String word) -> List<String>
+    static final MethodHandle ADD;             // (String word, String definition) -> boolean
+    static final MethodHandle UPDATE;          // (String word, String oldDefinition, String newDefinition) -> result
+    static final MethodHandle NEW_REQUEST;     // (String action, word, oldDefinition, definition) -> request
+    static final MethodHandle NEW_RESPONSE;    // (long id, String message) -> response
+    static final MethodHandle ENCODE_REQUEST;  // (codec, request) -> byte[]
+    static final MethodHandle DECODE_REQUEST;  // (codec, byte[] frame, int offset, int length) -> request
+    static final MethodHandle ENCODE_RESPONSE; // (codec, response) -> byte[]
+    static final MethodHandle DECODE_RESPONSE; // (codec, byte[] frame, int offset, int length) -> response
+    static final Object JSON_CODEC;
+    static final Object BINARY_CODEC;
+    static final Class<?> REQUEST;
+    static final Class<?> RESPONSE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> dictionary = Class.forName("Dictionary");
+            Class<?> codec = Class.forName("Codec");
+            REQUEST = Class.forName("DictionaryRequest");
+            RESPONSE = Class.forName("DictionaryResponse");
+            NEW_DICTIONARY = lookup.findConstructor(dictionary, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            LOAD = lookup.findVirtual(dictionary, "loadDictionary", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            QUERY = lookup.findStatic(dictionary, "query", MethodType.methodType(List.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            ADD = lookup.findStatic(dictionary, "add",
+                    MethodType.methodType(boolean.class, String.class, String.class));
+            Class<?> updateResult = Class.forName("Dictionary$UpdateResult");
+            UPDATE = lookup.findStatic(dictionary, "update",
+                            MethodType.methodType(updateResult, String.class, String.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class, String.class, String.class));
+            NEW_REQUEST = lookup.findConstructor(REQUEST,
+                            MethodType.methodType(void.class, String.class, String.class, String.class, String.class))
+                    .asType(MethodType.methodType(Object.class,
+                            String.class, String.class, String.class, String.class));
+            NEW_RESPONSE = lookup.findConstructor(RESPONSE, MethodType.methodType(void.class, long.class, String.class))
+                    .asType(MethodType.methodType(Object.class, long.class, String.class));
+            ENCODE_REQUEST = erase(lookup.findVirtual(codec, "encodeRequest",
+                    MethodType.methodType(byte[].class, REQUEST)));
+            DECODE_REQUEST = erase(lookup.findVirtual(codec, "decodeRequest",
+                    MethodType.methodType(REQUEST, byte[].class, int.class, int.class)));
+            ENCODE_RESPONSE = erase(lookup.findVirtual(codec, "encodeResponse",
+                    MethodType.methodType(byte[].class, RESPONSE)));
+            DECODE_RESPONSE = erase(lookup.findVirtual(codec, "decodeResponse",
+                    MethodType.methodType(RESPONSE, byte[].class, int.class, int.class)));
+            JSON_CODEC = Class.forName("JsonCodec").getField("INSTANCE").get(null);
+            BINARY_CODEC = Class.forName("BinaryCodec").getField("INSTANCE").get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private DictionaryHandles() {
+    }
+
+    // Replace every dictionary type in the signature with Object so callers can invokeExact without naming them
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (!type.parameterType(i).isPrimitive() && type.parameterType(i) != byte[].class) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (!type.returnType().isPrimitive() && type.returnType() != byte[].class) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Socket load driver for a running DictionaryServer:
+ *   java -cp benchmarks.jar bench.LoadDriver host port [clients] [seconds] [words] [write percent] [zipf exponent]
+ * Each client is a thread with its own connection that sends one JSON request, waits for the answer and sends the
+ * next, so the server sees as many requests in flight as there are clients. Words are drawn from a Zipf
+ * distribution over word0..word(n-1), which are added first in batches if missing. Reads are queries; writes
+ * rewrite a definition with itself, so the dictionary does not grow. After a warm-up of a fifth of the run, the
+ * driver reports throughput and latency percentiles for reads and writes, and how many requests the server turned
+ * away as busy (those are counted but left out of the latencies).
+ * Raising the client count until throughput stops growing while latency does shows where the worker pool or the
+ * per-word locks saturate; a higher exponent makes the hot words hotter.
+ */
+
+package bench;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadDriver {
+    private static final int PRELOAD_BATCH = 1000;
+
+    private final String host;
+    private final int port;
+    private final int words;
+    private final int writePercent;
+    private final Zipf zipf;
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong busy = new AtomicLong();
+
+    LoadDriver(String host, int port, int words, int writePercent, double exponent) {
+        this.host = host;
+        this.port = port;
+        this.words = words;
+        this.writePercent = writePercent;
+        this.zipf = new Zipf(words, exponent);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println(
+                    "Usage: LoadDriver host port [clients] [seconds] [words] [write percent] [zipf exponent]");
+            System.exit(1);
+        }
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        int words = args.length > 4 ? Integer.parseInt(args[4]) : 100_000;
+        int writePercent = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+        double exponent = args.length > 6 ? Double.parseDouble(args[6]) : 1.0;
+        LoadDriver driver = new LoadDriver(args[0], Integer.parseInt(args[1]), words, writePercent, exponent);
+        driver.preload();
+        driver.run(clients, seconds * 1000L);
+    }
+
+    private void preload() throws IOException {
+        try (Connection connection = new Connection(host, port)) {
+            for (int start = 0; start < words; start += PRELOAD_BATCH) {
+                StringBuilder batch = new StringBuilder("{\"action\":\"batch\",\"requests\":[");
+                for (int i = start; i < Math.min(words, start + PRELOAD_BATCH); i++) {
+                    batch.append(i > start ? "," : "").append(request("add", i, null));
+                }
+                connection.call(batch.append("]}").toString());
+            }
+        }
+        System.out.println("Preloaded " + words + " words");
+    }
+
+    private void run(int clients, long durationMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + durationMillis * 1_000_000 / 5;
+        long end = start + durationMillis * 1_000_000;
+        Recorder[] recorders = new Recorder[clients];
+        CountDownLatch finished = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            Recorder recorder = new Recorder(i);
+            recorders[i] = recorder;
+            Thread client = new Thread(() -> {
+                try {
+                    drive(recorder, measureFrom, end);
+                } finally {
+                    finished.countDown();
+                }
+            }, "load-client-" + i);
+            client.start();
+        }
+        finished.await();
+        double seconds = (end - measureFrom) / 1e9;
+        Latencies reads = new Latencies();
+        Latencies writes = new Latencies();
+        for (Recorder recorder : recorders) {
+            reads.addAll(recorder.reads);
+            writes.addAll(recorder.writes);
+        }
+        System.out.printf("%d clients, %.0f s measured, %d errors, %d busy%n", clients, seconds, errors.get(),
+                busy.get());
+        System.out.printf("total   %10.0f requests/s%n", (reads.size + writes.size) / seconds);
+        reads.report("reads", seconds);
+        writes.report("writes", seconds);
+    }
+
+    private void drive(Recorder recorder, long measureFrom, long end) {
+        try (Connection connection = new Connection(host, port)) {
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= end) {
+                    return;
+                }
+                int index = zipf.next(recorder.random);
+                boolean write = recorder.random.nextInt(100) < writePercent;
+                String response = connection.call(write ? request("update", index, definition(index))
+                        : request("query", index, null));
+                long latency = System.nanoTime() - now;
+                if (response.contains("Invalid request")) {
+                    errors.incrementAndGet();
+                } else if (response.contains("Server busy")) {
+                    if (now >= measureFrom) {
+                        busy.incrementAndGet();
+                    }
+                    continue;
+                }
+                if (now >= measureFrom) {
+                    (write ? recorder.writes : recorder.reads).add(latency);
+                }
+            }
+        } catch (IOException e) {
+            errors.incrementAndGet();
+            System.err.println(Thread.currentThread().getName() + ": " + e.getMessage());
+        }
+    }
+
+    // Words and definitions are plain ASCII, so they need no JSON escaping
+    private static String request(String action, int index, String oldDefinition) {
+        StringBuilder json = new StringBuilder("{\"action\":\"").append(action)
+                .append("\",\"word\":\"word").append(index).append('"');
+        if (oldDefinition != null) {
+            json.append(",\"oldDefinition\":\"").append(oldDefinition).append('"');
+        }
+        if (!action.equals("query")) {
+            json.append(",\"definition\":\"").append(definition(index)).append('"');
+        }
+        return json.append('}').toString();
+    }
+
+    private static String definition(int index) {
+        return "the meaning of word number " + index;
+    }
+
+    /**
+     * One blocking connection speaking JSON lines, kept deliberately simple so the driver measures the server.
+     */
+    private static final class Connection implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        String call(String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+            String response = in.readLine();
+            if (response == null) {
+                throw new EOFException("Server closed the connection");
+            }
+            return response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static final class Recorder {
+        final SplittableRandom random;
+        final Latencies reads = new Latencies();
+        final Latencies writes = new Latencies();
+
+        Recorder(int seed) {
+            random = new SplittableRandom(seed);
+        }
+    }
+
+    /**
+     * Latencies in nanoseconds, kept whole and sorted for the report; a run records a few million at most.
+     */
+    private static final class Latencies {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long latency) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = latency;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        void report(String name, double seconds) {
+            if (size == 0) {
+                System.out.printf("%-7s none%n", name);
+                return;
+            }
+            Arrays.sort(values, 0, size);
+            List<String> percentiles = new ArrayList<>();
+            for (double percentile : new double[]{50, 90, 99, 99.9}) {
+                long value = values[(int) Math.min(size - 1, Math.ceil(percentile / 100 * size) - 1)];
+                percentiles.add(String.format("p%s %.0f us", percentile == 99.9 ? "99.9" : (int) percentile,
+                        value / 1e3));
+            }
+            System.out.printf("%-7s %10.0f requests/s  %s  max %.0f us%n", name, size / seconds,
+                    String.join("  ", percentiles), values[size - 1] / 1e3);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Zipf-distributed ranks: rank k (from 0) is drawn with probability proportional to 1 / (k + 1)^exponent, so a few
+ * words take most of the traffic, as they do in real lookups. The cumulative distribution is built once and
+ * sampled with a binary search.
+ */
+
+package bench;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+final class Zipf {
+    private final double[] cumulative;
+
+    Zipf(int size, double exponent) {
+        cumulative = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= sum;
+        }
+    }
+
+    int next(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+}
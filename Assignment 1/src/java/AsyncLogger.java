@@ -0,0 +1,110 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * AsyncLogger.java
+ * Leveled logger that keeps console and GUI output off the threads serving requests.
+ * Messages below the threshold are discarded before they are built (callers check isLoggable() first for anything
+ * costly), and the rest are put on a bounded queue. A background thread writes them out in batches, so the
+ * console and the GUI see one write per batch rather than one per message. If the queue is full the message is
+ * dropped and counted instead of blocking the caller; the count is reported with the next batch.
+ */
+public class AsyncLogger {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int BATCH_SIZE = 512;
+
+    private final Level threshold;
+    private final PrintStream console;
+    private final BlockingQueue<String> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile Consumer<String> sink;
+    private volatile boolean closed;
+
+    public AsyncLogger(Level threshold, int capacity, PrintStream console) {
+        this.threshold = threshold;
+        this.console = console;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::writeLoop, "dictionary-logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Set a receiver for each batch of formatted lines, in addition to the console.
+     */
+    public void setSink(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    public boolean isLoggable(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    public void log(Level level, String message) {
+        if (!isLoggable(level)) {
+            return;
+        }
+        if (!queue.offer(level == Level.INFO ? message : level + ": " + message)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Write out whatever is queued and stop the background thread.
+     */
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(Constant.THREAD_JOIN);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                if (closed) {
+                    break;
+                }
+                continue;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            write(batch);
+        }
+        while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+            write(batch);
+        }
+    }
+
+    private void write(List<String> batch) {
+        StringBuilder text = new StringBuilder();
+        for (String message : batch) {
+            text.append(message).append('\n');
+        }
+        batch.clear();
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            text.append("WARN: ").append(lost).append(" log messages dropped\n");
+        }
+        console.print(text);
+        console.flush();
+        Consumer<String> receiver = sink;
+        if (receiver != null) {
+            receiver.accept(text.toString());
+        }
+    }
+}
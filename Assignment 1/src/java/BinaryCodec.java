@@ -0,0 +1,204 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * BinaryCodec.java
+ * Compact binary codec, negotiated with "CODEC BINARY".
+ * A frame is a 4-byte length followed by the fields in a fixed order:
+ * - request:  id (8 bytes), action, word, old definition, definition, sub-request count then sub-requests;
+ * - response: id (8 bytes), message, result count then results.
+ * Strings are a 4-byte UTF-8 length (-1 for null) and the bytes; counts are -1 when the list is absent.
+ * Nothing needs parsing or escaping, so decoding is a handful of bounds-checked reads per field.
+ */
+public class BinaryCodec implements Codec {
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    @Override
+    public boolean isLengthPrefixed() {
+        return true;
+    }
+
+    @Override
+    public byte[] encodeRequest(DictionaryRequest request) {
+        Output out = new Output();
+        out.writeInt(0); // length, filled in below
+        writeRequest(out, request);
+        return out.toFrame();
+    }
+
+    @Override
+    public byte[] encodeResponse(DictionaryResponse response) {
+        Output out = new Output();
+        out.writeInt(0);
+        writeResponse(out, response);
+        return out.toFrame();
+    }
+
+    @Override
+    public DictionaryRequest decodeRequest(byte[] frame, int offset, int length) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(frame, offset, length);
+            DictionaryRequest request = readRequest(in, 0);
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Unexpected data after the request");
+            }
+            return request;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated request");
+        }
+    }
+
+    @Override
+    public DictionaryResponse decodeResponse(byte[] frame, int offset, int length) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(frame, offset, length);
+            DictionaryResponse response = readResponse(in, 0);
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Unexpected data after the response");
+            }
+            return response;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated response");
+        }
+    }
+
+    private static void writeRequest(Output out, DictionaryRequest request) {
+        out.writeLong(request.getId());
+        out.writeString(request.getAction());
+        out.writeString(request.getWord());
+        out.writeString(request.getOldDefinition());
+        out.writeString(request.getDefinition());
+        List<DictionaryRequest> requests = request.getRequests();
+        out.writeInt(requests == null ? -1 : requests.size());
+        if (requests != null) {
+            for (DictionaryRequest nested : requests) {
+                writeRequest(out, nested);
+            }
+        }
+    }
+
+    private static void writeResponse(Output out, DictionaryResponse response) {
+        out.writeLong(response.getId());
+        out.writeString(response.getMessage());
+        List<DictionaryResponse> results = response.getResults();
+        out.writeInt(results == null ? -1 : results.size());
+        if (results != null) {
+            for (DictionaryResponse nested : results) {
+                writeResponse(out, nested);
+            }
+        }
+    }
+
+    private static DictionaryRequest readRequest(ByteBuffer in, int depth) {
+        checkDepth(depth);
+        long id = in.getLong();
+        String action = readString(in);
+        String word = readString(in);
+        String oldDefinition = readString(in);
+        String definition = readString(in);
+        int count = readCount(in);
+        List<DictionaryRequest> requests = null;
+        if (count >= 0) {
+            requests = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                requests.add(readRequest(in, depth + 1));
+            }
+        }
+        return new DictionaryRequest(id, action, word, oldDefinition, definition, requests);
+    }
+
+    private static DictionaryResponse readResponse(ByteBuffer in, int depth) {
+        checkDepth(depth);
+        long id = in.getLong();
+        String message = readString(in);
+        int count = readCount(in);
+        List<DictionaryResponse> results = null;
+        if (count >= 0) {
+            results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(readResponse(in, depth + 1));
+            }
+        }
+        return new DictionaryResponse(id, message, results);
+    }
+
+    // An empty nested batch costs 28 bytes a level, so without a cap one large frame could overflow the stack
+    private static void checkDepth(int depth) {
+        if (depth > Constant.MAX_NESTING_DEPTH) {
+            throw new IllegalArgumentException("Batches nested too deeply");
+        }
+    }
+
+    // A count can never exceed the bytes left, so a corrupt one cannot trigger a huge allocation
+    private static int readCount(ByteBuffer in) {
+        int count = in.getInt();
+        if (count > in.remaining()) {
+            throw new IllegalArgumentException("Bad element count " + count);
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static final class Output {
+        private byte[] buffer = new byte[128];
+        private int size;
+
+        void writeInt(int value) {
+            ensure(Integer.BYTES);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toFrame() {
+            int length = size - Integer.BYTES;
+            buffer[0] = (byte) (length >>> 24);
+            buffer[1] = (byte) (length >>> 16);
+            buffer[2] = (byte) (length >>> 8);
+            buffer[3] = (byte) length;
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
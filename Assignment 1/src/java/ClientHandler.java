@@ -1,58 +1,645 @@
-import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import com.google.gson.Gson;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * Ruoyu Lu
  * 1466195
  * ClientHandler.java
  * Handles client requests and sends responses to the client.
+ * One handler belongs to each connection but no thread does: the server's selector thread hands it the bytes it
+ * reads, the handler cuts them into request frames, and the frames are processed in order on the worker pool, at
+ * most one worker per connection at a time. Responses are written without blocking; whatever the socket does not
+ * take is queued and flushed by the selector thread, and reading pauses while too much output is queued or too many
+ * requests wait to be processed.
+ * Frames are JSON lines unless the client negotiates the binary codec with its first line (see Codec).
+ * A connection can also watch words and prefixes: the events are pushed to it as they happen (see WatchRegistry),
+ * and a watcher that lets MAX_PENDING_EVENT_OUTPUT bytes pile up unread is disconnected.
+ * Bulk imports and exports are streams of records rather than requests (see RecordStream). An export is sent a
+ * chunk at a time between turns, and waits whenever the client has not read what was already sent.
+ * When the worker pool is overloaded and refuses a turn, the waiting requests are answered "Server busy" at once
+ * instead; streams already under way are let through, as they cannot be cut off half-way.
+ * A connection that moves no bytes for a while is parked, keeping no read buffer until it sends again, and closed
+ * once the server's idle timeout passes; a "ping" request, answered "Pong", is all a client needs to stay.
  */
-public class ClientHandler implements Runnable {
-    private Socket clientSocket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private Gson gson;
+public class ClientHandler {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int REQUESTS_PER_TURN = 64; // then yield the worker to other connections
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    private static final int MAX_PENDING_EVENT_OUTPUT = 16 * MAX_PENDING_OUTPUT;
+    private static final int MAX_PENDING_INPUT = 4 * MAX_PENDING_OUTPUT;
+    private static final String SERVER_BUSY = "Server busy";
+    private static final long PARK_AFTER = TimeUnit.SECONDS.toNanos(10); // of silence, before the read buffer goes
+
+    private final SocketChannel channel;
+    private SelectionKey key;
     private Dictionary dictionary;
     private DictionaryServer server;
+    private volatile Codec codec = JsonCodec.INSTANCE;
+    private boolean firstFrame = true;
+    // Bytes read but not yet cut into frames, or null while parked; only touched by the selector thread
+    private byte[] inbound = new byte[READ_BUFFER_SIZE];
+    private int inboundSize;
+    private int scanned; // bytes already searched for a newline
+    private final Queue<byte[]> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong(); // in the frames of requests
+    private final AtomicBoolean processing = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>(); // guarded by itself
+    private long pendingBytes;
+    private boolean evicted; // too far behind on watch events, and waiting to be closed; guarded by pendingWrites
+    private final Map<String, WatchRegistry.Watch> watches = new ConcurrentHashMap<>(); // by pattern
+    private volatile Import importing; // set while an import stream is being received
+    private volatile Export exporting; // set while an export stream is being sent
+    private volatile long lastActive = System.nanoTime(); // when bytes last moved either way
 
-    public ClientHandler(Socket clientSocket, Dictionary dictionary, DictionaryServer server) {
-        this.clientSocket = clientSocket;
-        this.gson = new Gson();
+    public ClientHandler(SocketChannel channel, Dictionary dictionary, DictionaryServer server) {
+        this.channel = channel;
         this.dictionary = dictionary;
         this.server = server;
     }
 
-    @Override
-    public void run() {
+    public void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Called on the selector thread when the channel has data to read.
+     */
+    public void onReadable() throws IOException {
+        if (inbound == null) {
+            inbound = new byte[READ_BUFFER_SIZE];
+        } else if (inboundSize == inbound.length) {
+            inbound = Arrays.copyOf(inbound, inbound.length * 2);
+        }
+        int read = channel.read(ByteBuffer.wrap(inbound, inboundSize, inbound.length - inboundSize));
+        if (read == -1) {
+            close();
+            return;
+        }
+        inboundSize += read;
+        lastActive = System.nanoTime();
+        int consumed = extractFrames();
+        if (consumed > 0) {
+            System.arraycopy(inbound, consumed, inbound, 0, inboundSize - consumed);
+            inboundSize -= consumed;
+            scanned = Math.max(0, scanned - consumed);
+            if (inboundSize == 0 && inbound.length > READ_BUFFER_SIZE) {
+                inbound = new byte[READ_BUFFER_SIZE]; // don't keep a large request's buffer for the connection's life
+            }
+        }
+        if (inboundSize > Constant.MAX_REQUEST_SIZE + Integer.BYTES) {
+            throw new IOException("Request exceeds " + Constant.MAX_REQUEST_SIZE + " bytes");
+        }
+        if (queuedBytes.get() > MAX_PENDING_INPUT) {
+            updateInterest(); // the workers are behind, e.g. applying an import: stop reading until they catch up
+        }
+        scheduleProcessing();
+    }
+
+    /**
+     * Called on the selector thread now and then: park the connection if it has gone quiet, and close it if it has
+     * been idle for the timeout. A connection with requests waiting or being processed is not idle, however long
+     * they take.
+     *
+     * @param timeout Nanoseconds of idleness before the connection is closed, or 0 never to close it.
+     */
+    public void checkIdle(long now, long timeout) {
+        if (processing.get() || !requests.isEmpty()) {
+            return;
+        }
+        long idle = now - lastActive;
+        if (timeout > 0 && idle >= timeout) {
+            server.log("Closing a connection idle for " + TimeUnit.NANOSECONDS.toSeconds(idle) + " seconds");
+            close();
+        } else if (idle >= PARK_AFTER && inboundSize == 0) {
+            inbound = null;
+        }
+    }
+
+    /**
+     * Queue every complete frame in the inbound bytes.
+     *
+     * @return The number of bytes consumed.
+     */
+    private int extractFrames() throws IOException {
+        int position = 0;
+        while (true) {
+            if (codec.isLengthPrefixed()) {
+                if (inboundSize - position < Integer.BYTES) {
+                    return position;
+                }
+                int length = ByteBuffer.wrap(inbound, position, Integer.BYTES).getInt();
+                if (length < 0 || length > Constant.MAX_REQUEST_SIZE) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (inboundSize - position - Integer.BYTES < length) {
+                    return position;
+                }
+                position += Integer.BYTES;
+                queue(Arrays.copyOfRange(inbound, position, position + length));
+                position += length;
+                continue;
+            }
+            int newline = -1;
+            for (int i = Math.max(position, scanned); i < inboundSize; i++) {
+                if (inbound[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            if (newline == -1) {
+                scanned = inboundSize;
+                return position;
+            }
+            int lineEnd = newline > position && inbound[newline - 1] == '\r' ? newline - 1 : newline;
+            byte[] line = Arrays.copyOfRange(inbound, position, lineEnd);
+            position = newline + 1;
+            if (firstFrame && new String(line, StandardCharsets.UTF_8).equals(Codec.NEGOTIATE_BINARY)) {
+                codec = BinaryCodec.INSTANCE;
+                send((Codec.BINARY_ACCEPTED + "\n").getBytes(StandardCharsets.UTF_8));
+            } else {
+                queue(line);
+            }
+            firstFrame = false;
+        }
+    }
+
+    private void queue(byte[] frame) {
+        queuedBytes.addAndGet(frame.length);
+        requests.add(frame);
+    }
+
+    /**
+     * Called on the selector thread when queued output can be written.
+     */
+    public void onWritable() throws IOException {
+        synchronized (pendingWrites) {
+            while (!pendingWrites.isEmpty()) {
+                ByteBuffer buffer = pendingWrites.peek();
+                if (channel.write(buffer) > 0) {
+                    lastActive = System.nanoTime();
+                }
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                pendingWrites.poll();
+                pendingBytes -= buffer.capacity();
+            }
+            updateInterest(); // drained: stop waiting to write, resume reading
+        }
+        scheduleProcessing(); // an export may be waiting for the client to catch up
+    }
+
+    /**
+     * Wait to write while output is queued, and read unless a backlog of input or output has built up.
+     * Called on the selector thread.
+     */
+    private void updateInterest() {
+        if (!key.isValid()) {
+            return;
+        }
+        synchronized (pendingWrites) {
+            boolean read = pendingBytes <= MAX_PENDING_OUTPUT && queuedBytes.get() <= MAX_PENDING_INPUT;
+            key.interestOps((read ? SelectionKey.OP_READ : 0) | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (WatchRegistry.Watch watch : watches.values()) {
+            Dictionary.unwatch(watch);
+        }
+        Export export = exporting;
+        if (export != null) {
+            export.snapshot.close();
+        }
         try {
-            initializeStreams();
-            handleClientRequests();
+            if (key != null) key.cancel();
+            channel.close();
+            server.log("Client disconnected");
         } catch (IOException e) {
-            server.log("Error handling client: " + e.getMessage());
-        } finally {
-            closeConnection();
-            server.updateConnectedClients(-1);
+            server.log(AsyncLogger.Level.WARN, "Error closing connection: " + e.getMessage());
+        }
+        server.updateConnectedClients(-1);
+    }
+
+    private void scheduleProcessing() {
+        while (isReady() && processing.compareAndSet(false, true)) {
+            if (importing != null || exporting != null) {
+                executeOrClose(); // a stream under way is never turned away
+                return;
+            }
+            if (server.tryExecute(this::processRequests)) {
+                return;
+            }
+            if (!shed()) {
+                executeOrClose();
+                return;
+            }
+            processing.set(false); // then look again for requests that arrived meanwhile
         }
     }
-    private void initializeStreams() throws IOException {
-        in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        out = new PrintWriter(clientSocket.getOutputStream(), true);
+
+    // Work that cannot be shed only fails when even the queue slots reserved for it are taken
+    private void executeOrClose() {
+        if (!server.execute(this::processRequests)) {
+            server.log(AsyncLogger.Level.WARN, "Worker queue full: disconnecting a client with a stream under way");
+            processing.set(false);
+            close();
+        }
+    }
+
+    private boolean isReady() {
+        if (closed.get()) {
+            return false; // frames left over when the client went away are dropped
+        }
+        // Requests queued behind an export wait for it, so while it cannot send there is nothing to do
+        return exporting != null ? !isOutputFull() : !requests.isEmpty();
     }
 
-    private void handleClientRequests() throws IOException {
-        String jsonRequest;
-        while ((jsonRequest = in.readLine()) != null) {
-            server.log("Received from client: " + jsonRequest);
-            DictionaryRequest request = gson.fromJson(jsonRequest, DictionaryRequest.class);
-            String response = processRequest(request);
-            out.println(gson.toJson(new DictionaryResponse(response)));
+    /**
+     * Answer every waiting request "Server busy" without processing it. This only decodes the requests for their
+     * ids, so it is cheap enough to do on whichever thread found the pool overloaded.
+     *
+     * @return True if every request was answered, false if an import request was found, which must be processed
+     *         after all: the records that follow it would otherwise be taken for requests.
+     */
+    private boolean shed() {
+        byte[] frame;
+        while (!closed.get() && (frame = requests.peek()) != null) {
+            Codec frameCodec = codec;
+            if (frameCodec.isLengthPrefixed() || !isBlank(frame)) {
+                DictionaryRequest request;
+                try {
+                    request = frameCodec.decodeRequest(frame, 0, frame.length);
+                } catch (IllegalArgumentException e) {
+                    request = new DictionaryRequest(null, null, null, null); // busy all the same
+                }
+                if ("import".equals(request.getAction())) {
+                    return false;
+                }
+                // A batch gets a result per request, as its client expects
+                List<DictionaryResponse> results = null;
+                if (request.getRequests() != null) {
+                    results = new ArrayList<>(request.getRequests().size());
+                    for (DictionaryRequest batched : request.getRequests()) {
+                        results.add(new DictionaryResponse(batched.getId(), SERVER_BUSY));
+                    }
+                }
+                send(frameCodec.encodeResponse(new DictionaryResponse(request.getId(), SERVER_BUSY, results)));
+                server.incrementRejectedCount();
+            }
+            dequeue();
+        }
+        return true;
+    }
+
+    /**
+     * Take the next frame off the queue, and resume reading if that brings the backlog back under its limit.
+     */
+    private byte[] dequeue() {
+        byte[] frame = requests.poll();
+        if (frame != null) {
+            long queued = queuedBytes.addAndGet(-frame.length);
+            if (queued <= MAX_PENDING_INPUT && queued + frame.length > MAX_PENDING_INPUT) {
+                server.onSelectorThread(this::updateInterest);
+            }
+        }
+        return frame;
+    }
+
+    private void processRequests() {
+        try {
+            int handled = 0;
+            while (handled++ < REQUESTS_PER_TURN && !closed.get()) {
+                if (exporting != null) {
+                    // Later requests wait for the export; onWritable resumes it once the client catches up
+                    if (isOutputFull()) {
+                        break;
+                    }
+                    continueExport();
+                    continue;
+                }
+                byte[] frame = dequeue();
+                if (frame == null) {
+                    break;
+                }
+                handleRequest(frame);
+            }
+        } finally {
+            processing.set(false);
+            scheduleProcessing(); // lines that arrived after the last poll, or left over from this turn
+        }
+    }
+
+    private void handleRequest(byte[] frame) {
+        Codec frameCodec = codec;
+        if (importing != null) {
+            continueImport(frame, frameCodec);
+            return;
+        }
+        if (!frameCodec.isLengthPrefixed() && isBlank(frame)) {
+            return;
+        }
+        DictionaryRequest request;
+        try {
+            request = frameCodec.decodeRequest(frame, 0, frame.length);
+        } catch (IllegalArgumentException e) {
+            server.log(AsyncLogger.Level.WARN, "Invalid request from client: " + e.getMessage());
+            send(frameCodec.encodeResponse(new DictionaryResponse("Invalid request"))); // no id to answer to
             server.incrementRequestCount();
+            return;
+        }
+        DictionaryResponse response;
+        try {
+            if (request.getAction() == null) {
+                throw new IllegalArgumentException("Missing action");
+            }
+            if (server.isLoggable(AsyncLogger.Level.DEBUG)) {
+                server.log(AsyncLogger.Level.DEBUG,
+                        "Received from client: " + request.getAction() + " " + request.getWord());
+            }
+            switch (request.getAction()) {
+                case "batch":
+                    response = processBatch(request);
+                    break;
+                case "import":
+                    importing = new Import(request.getId(), server.isReadOnly());
+                    return;
+                case "export":
+                    if (request.getDefinition() == null) {
+                        startExport(request, frameCodec);
+                        server.incrementRequestCount();
+                        return;
+                    }
+                    response = processExport(request);
+                    break;
+                case "watch":
+                    processWatch(request, frameCodec);
+                    server.incrementRequestCount();
+                    return;
+                default:
+                    response = new DictionaryResponse(request.getId(), processRequest(request));
+            }
+        } catch (IllegalArgumentException e) {
+            server.log(AsyncLogger.Level.WARN, "Invalid request from client: " + e.getMessage());
+            response = new DictionaryResponse(request.getId(), "Invalid request");
+        } catch (RuntimeException e) {
+            // Always answer, or a pipelining client would wait for this id forever
+            server.log(AsyncLogger.Level.ERROR, "Error processing " + request.getAction() + " request: " + e);
+            response = new DictionaryResponse(request.getId(), "Request failed: " + e.getMessage());
+        }
+        send(frameCodec.encodeResponse(response));
+        server.incrementRequestCount();
+    }
+
+    // The whole batch becomes durable together, so it costs one log flush instead of one per mutation.
+    // A batch of queries is answered from one snapshot, so it sees every word as of the same moment.
+    private DictionaryResponse processBatch(DictionaryRequest batch) {
+        List<DictionaryRequest> requests = batch.getRequests() != null ? batch.getRequests() : List.of();
+        List<DictionaryResponse> results = new ArrayList<>(requests.size());
+        if (requests.size() > 1 && requests.stream().allMatch(request -> "query".equals(request.getAction()))) {
+            try (DictionarySnapshot snapshot = Dictionary.snapshot()) {
+                for (DictionaryRequest request : requests) {
+                    // Answered as processRequest() would answer it in a mixed batch
+                    String message = request.getWord() == null && needsWord(request.getAction()) ? "Missing word"
+                            : renderDefinitions(snapshot.get(request.getWord().toLowerCase()));
+                    results.add(new DictionaryResponse(request.getId(), message));
+                }
+            }
+            return new DictionaryResponse(batch.getId(), "Batch of " + results.size() + " requests processed", results);
+        }
+        Dictionary.runBatch(() -> {
+            for (DictionaryRequest request : requests) {
+                results.add(new DictionaryResponse(request.getId(), processRequest(request)));
+            }
+        });
+        return new DictionaryResponse(batch.getId(), "Batch of " + results.size() + " requests processed", results);
+    }
+
+    /**
+     * Export a page of words for resharding: the word field holds the hash ranges ("lo:hi,..." as in
+     * ShardRouter.rangeFilter) and the definition field the last word of the previous page ("" for the first).
+     * Each result is a word, with its definitions as nested results.
+     */
+    private DictionaryResponse processExport(DictionaryRequest request) {
+        if (request.getWord() == null) {
+            throw new IllegalArgumentException("Missing hash ranges");
+        }
+        String after = request.getDefinition() != null ? request.getDefinition() : "";
+        List<DictionaryResponse> entries = new ArrayList<>();
+        for (String word : Dictionary.wordsAfter(after, ShardRouter.rangeFilter(request.getWord()),
+                Constant.EXPORT_PAGE_SIZE)) {
+            List<String> definitions = Dictionary.query(word);
+            if (definitions == null) {
+                continue; // deleted since the page was collected
+            }
+            List<DictionaryResponse> nested = new ArrayList<>(definitions.size());
+            for (String definition : definitions) {
+                nested.add(new DictionaryResponse(definition));
+            }
+            entries.add(new DictionaryResponse(0, word, nested));
+        }
+        return new DictionaryResponse(request.getId(), "Exported " + entries.size() + " words", entries);
+    }
+
+    /**
+     * Apply one frame of an import stream, or finish the import at the empty frame that ends it.
+     * The words are not logged one by one: a snapshot is saved at the end, before the import is acknowledged.
+     */
+    private void continueImport(byte[] frame, Codec frameCodec) {
+        Import current = importing;
+        if (frame.length > 0) {
+            if (current.readOnly) {
+                return; // read to the end, so that the records are not taken for requests
+            }
+            try {
+                RecordStream.read(frameCodec, frame, (word, definitions) -> {
+                    Dictionary.importWord(word, definitions);
+                    current.words++;
+                });
+            } catch (IOException e) {
+                current.malformed++;
+            }
+            return;
+        }
+        importing = null;
+        String message;
+        if (current.readOnly) {
+            message = "Read-only replica: send writes to the leader";
+        } else {
+            try {
+                dictionary.saveDictionary();
+                message = "Imported " + current.words + " words"
+                        + (current.malformed > 0 ? ", skipped " + current.malformed + " malformed records" : "");
+                server.log(message);
+            } catch (IOException e) {
+                message = "Import applied but not saved: " + e.getMessage();
+                server.log(AsyncLogger.Level.WARN, message);
+            }
         }
+        send(frameCodec.encodeResponse(new DictionaryResponse(current.id, message)));
+        server.incrementRequestCount();
+    }
+
+    /**
+     * Start streaming every word of a new snapshot, or only those in the hash ranges given as the word.
+     * Watch events would be mixed into the stream, so a connection that watches anything cannot export.
+     */
+    private void startExport(DictionaryRequest request, Codec frameCodec) {
+        Predicate<String> filter;
+        try {
+            filter = request.getWord() == null ? word -> true : ShardRouter.rangeFilter(request.getWord());
+        } catch (IllegalArgumentException e) {
+            send(frameCodec.encodeResponse(new DictionaryResponse(request.getId(), "Bad hash ranges")));
+            return;
+        }
+        if (!watches.isEmpty()) {
+            send(frameCodec.encodeResponse(new DictionaryResponse(request.getId(),
+                    "Cannot export on a connection that is watching words")));
+            return;
+        }
+        DictionarySnapshot snapshot = Dictionary.snapshot();
+        List<String> words = snapshot.words();
+        send(frameCodec.encodeResponse(new DictionaryResponse(request.getId(),
+                RecordStream.EXPORT_STARTED + "up to " + words.size() + " words")));
+        exporting = new Export(snapshot, words, filter, frameCodec);
+    }
+
+    // Send the next chunk of the export, and the end of the stream after the last one
+    private void continueExport() {
+        Export export = exporting;
+        while (export.next < export.words.size() && !export.records.isFull()) {
+            String word = export.words.get(export.next++);
+            if (export.filter.test(word)) {
+                List<String> definitions = export.snapshot.get(word);
+                if (definitions != null) {
+                    export.records.add(word, definitions);
+                }
+            }
+        }
+        if (!export.records.isEmpty()) {
+            send(export.records.take());
+        }
+        if (export.next == export.words.size()) {
+            send(RecordStream.end(export.codec));
+            export.snapshot.close();
+            exporting = null;
+        }
+    }
+
+    // A blank JSON line is skipped; scanning the bytes saves decoding a copy of every frame to find out
+    private static boolean isBlank(byte[] frame) {
+        for (byte b : frame) {
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isOutputFull() {
+        synchronized (pendingWrites) {
+            return pendingBytes > MAX_PENDING_OUTPUT;
+        }
+    }
+
+    /**
+     * Register a watch and acknowledge it in one step, so that no event can overtake the acknowledgement.
+     */
+    private void processWatch(DictionaryRequest request, Codec frameCodec) {
+        if (request.getWord() == null || request.getWord().isEmpty()) {
+            throw new IllegalArgumentException("Missing word or prefix to watch");
+        }
+        String pattern = request.getWord().toLowerCase();
+        synchronized (pendingWrites) {
+            WatchRegistry.Watch watch = Dictionary.watch(pattern, request.getId(), this::sendEvent);
+            WatchRegistry.Watch previous = watches.put(pattern, watch);
+            if (previous != null) {
+                Dictionary.unwatch(previous);
+            }
+            if (closed.get()) {
+                Dictionary.unwatch(watch); // close() may have run before the put, and would have missed it
+                return;
+            }
+            send(frameCodec.encodeResponse(new DictionaryResponse(request.getId(), "Watching " + pattern)));
+        }
+    }
+
+    /**
+     * Called while the changed word is locked, so it only queues the event and leaves the writing, and closing a
+     * watcher that has fallen too far behind, to the selector thread.
+     */
+    private void sendEvent(DictionaryResponse event) {
+        byte[] frame = codec.encodeResponse(event);
+        synchronized (pendingWrites) {
+            if (closed.get() || evicted) {
+                return;
+            }
+            if (pendingBytes <= MAX_PENDING_EVENT_OUTPUT) {
+                enqueue(ByteBuffer.wrap(frame));
+                return;
+            }
+            evicted = true;
+        }
+        server.log(AsyncLogger.Level.WARN, "Disconnecting a watcher that is not reading its events");
+        server.onSelectorThread(this::close);
+    }
+
+    private void send(byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        try {
+            synchronized (pendingWrites) {
+                if (pendingWrites.isEmpty()) {
+                    if (channel.write(buffer) > 0) {
+                        lastActive = System.nanoTime();
+                    }
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                }
+                enqueue(buffer);
+            }
+        } catch (IOException e) {
+            server.log(AsyncLogger.Level.WARN, "Error handling client: " + e.getMessage());
+            close();
+        }
+    }
+
+    // Let the selector write the buffer, and stop reading while a slow reader has a backlog. Holds pendingWrites.
+    private void enqueue(ByteBuffer buffer) {
+        pendingWrites.add(buffer);
+        pendingBytes += buffer.capacity();
+        server.onSelectorThread(this::updateInterest);
     }
 
     private String processRequest(DictionaryRequest request) {
+        if (request.getAction() == null) {
+            return "Missing action"; // only possible inside a batch
+        }
+        if (server.isReadOnly() && isWrite(request.getAction())) {
+            return "Read-only replica: send writes to the leader";
+        }
+        if (request.getWord() == null && needsWord(request.getAction())) {
+            return "Missing word";
+        }
         switch (request.getAction()) {
             case "add":
                 return handleAddRequest(request);
@@ -64,68 +651,152 @@ public class ClientHandler implements Runnable {
                 return handleAppendRequest(request);
             case "update":
                 return handleUpdateRequest(request);
+            case "prefix":
+                return handleWordListRequest(Dictionary.complete(request.getWord(), Constant.SUGGESTION_LIMIT));
+            case "suggest":
+                return handleWordListRequest(Dictionary.suggest(request.getWord(), Constant.SUGGESTION_LIMIT));
+            case "search":
+                return handleWordListRequest(Dictionary.search(request.getWord(), Constant.SEARCH_LIMIT));
+            case "expire":
+                return handleExpireRequest(request);
+            case "watch":
+                return "Watch cannot be part of a batch";
+            case "unwatch":
+                return handleUnwatchRequest(request.getWord());
+            case "ping":
+                return "Pong";
             default:
                 return "Unknown command";
         }
     }
 
+    private static boolean needsWord(String action) {
+        switch (action) {
+            case "query":
+            case "prefix":
+            case "suggest":
+            case "search":
+            case "unwatch":
+                return true;
+            default:
+                return isWrite(action);
+        }
+    }
+
+    static boolean isWrite(String action) {
+        switch (action) {
+            case "add":
+            case "delete":
+            case "append":
+            case "update":
+            case "expire":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Each operation checks and changes the word in one atomic step, so concurrent clients cannot race each other
     private String handleAddRequest(DictionaryRequest request) {
-        if (Dictionary.query(request.getWord()) != null) {
+        if (!Dictionary.add(request.getWord(), request.getDefinition())) {
             return "Word already exists";
         }
-        Dictionary.add(request.getWord(), request.getDefinition());
         return "Word added successfully";
     }
 
     private String handleQueryRequest(String word) {
-        List<String> results = Dictionary.query(word);
+        return Dictionary.queryRendered(word, ClientHandler::renderDefinitions);
+    }
+
+    private static String renderDefinitions(List<String> results) {
         String result = results != null && !results.isEmpty() ? String.join("\n", results) : null;
         return (result != null) ? result : "Word not found";
     }
 
     private String handleDeleteRequest(String word) {
-        if (Dictionary.query(word) == null) {
+        if (!Dictionary.delete(word)) {
             return "Word not found";
         }
-        Dictionary.delete(word);
         return "Word deleted successfully";
     }
 
     private String handleAppendRequest(DictionaryRequest request) {
-        List<String> currentDefinitions = Dictionary.query(request.getWord());
-        String currentDefinition = currentDefinitions != null ? String.join("\n", currentDefinitions) : null;
-        if (currentDefinition == null) {
+        if (!Dictionary.append(request.getWord(), request.getDefinition())) {
             return "Word not found";
-        } else {
-            Dictionary.append(request.getWord(), request.getDefinition());
-            return "Definition appended successfully";
         }
+        return "Definition appended successfully";
     }
 
     private String handleUpdateRequest(DictionaryRequest request) {
-        List<String> currentDefinitions = Dictionary.query(request.getWord());
-        if (currentDefinitions == null || currentDefinitions.isEmpty()) {
+        switch (Dictionary.update(request.getWord(), request.getOldDefinition(), request.getDefinition())) {
+            case UPDATED:
+                return "Word updated successfully";
+            case DEFINITION_NOT_FOUND:
+                return "Old definition does not exist";
+            default:
+                return "Word not found";
+        }
+    }
+
+    // The definition field holds the time to live in seconds; 0 stops the word expiring
+    private String handleExpireRequest(DictionaryRequest request) {
+        long seconds;
+        try {
+            seconds = Long.parseLong(request.getDefinition() != null ? request.getDefinition().trim() : "");
+        } catch (NumberFormatException e) {
+            return "Expiry time must be a whole number of seconds";
+        }
+        if (!Dictionary.expire(request.getWord(), Math.max(0, Math.min(seconds, Long.MAX_VALUE / 1000)) * 1000)) {
             return "Word not found";
         }
-        if (!currentDefinitions.contains(request.getOldDefinition())) {
-            return "Old definition does not exist";
+        return seconds > 0 ? "Word expires in " + seconds + " seconds" : "Word no longer expires";
+    }
+
+    private String handleUnwatchRequest(String pattern) {
+        WatchRegistry.Watch watch = pattern != null ? watches.remove(pattern.toLowerCase()) : null;
+        if (watch == null) {
+            return "Not watching " + pattern;
         }
-        boolean updated = Dictionary.update(request.getWord(), request.getOldDefinition(), request.getDefinition());
-        if (updated) {
-            return "Word updated successfully";
-        } else {
-            return "Failed to update word";
+        Dictionary.unwatch(watch);
+        return "Stopped watching " + pattern.toLowerCase();
+    }
+
+    private String handleWordListRequest(List<String> words) {
+        return words.isEmpty() ? "No matches found" : String.join("\n", words);
+    }
+
+    /**
+     * An import stream being received.
+     */
+    private static final class Import {
+        final long id;
+        final boolean readOnly; // replicas take the stream but apply none of it
+        long words;
+        long malformed;
+
+        Import(long id, boolean readOnly) {
+            this.id = id;
+            this.readOnly = readOnly;
         }
     }
 
-    private void closeConnection() {
-        try {
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (clientSocket != null) clientSocket.close();
-            System.out.println("Client disconnected");
-        } catch (IOException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+    /**
+     * An export stream being sent: the snapshot, the words to walk and how far the walk has got.
+     */
+    private static final class Export {
+        final DictionarySnapshot snapshot;
+        final List<String> words;
+        final Predicate<String> filter;
+        final Codec codec;
+        final RecordStream records;
+        int next;
+
+        Export(DictionarySnapshot snapshot, List<String> words, Predicate<String> filter, Codec codec) {
+            this.snapshot = snapshot;
+            this.words = words;
+            this.filter = filter;
+            this.codec = codec;
+            this.records = new RecordStream(codec);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+/**
+ * Ruoyu Lu
+ * 1466195
+ * Codec.java
+ * Wire format of requests and responses.
+ * A connection starts with the JSON codec, one object per line. A client that wants the binary codec sends the
+ * line "CODEC BINARY" first; a server that supports it answers "CODEC BINARY OK" and both sides switch to
+ * length-prefixed binary frames. An older server answers with an error instead, and the client stays on JSON.
+ * Encoded frames include their framing (the newline or the length prefix); decoding takes the frame content only.
+ */
+public interface Codec {
+    String NEGOTIATE_BINARY = "CODEC BINARY";
+    String BINARY_ACCEPTED = "CODEC BINARY OK";
+
+    /**
+     * @return True if frames are a 4-byte big-endian length followed by the content, false if they end at a newline.
+     */
+    boolean isLengthPrefixed();
+
+    byte[] encodeRequest(DictionaryRequest request);
+
+    byte[] encodeResponse(DictionaryResponse response);
+
+    /**
+     * @throws IllegalArgumentException If the frame is not a valid request.
+     */
+    DictionaryRequest decodeRequest(byte[] frame, int offset, int length);
+
+    /**
+     * @throws IllegalArgumentException If the frame is not a valid response.
+     */
+    DictionaryResponse decodeResponse(byte[] frame, int offset, int length);
+}
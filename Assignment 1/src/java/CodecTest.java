@@ -0,0 +1,136 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * CodecTest.java
+ * Round-trip and malformed-input checks for the JSON and binary codecs.
+ * Run with "java CodecTest"; it prints "ok" or fails with the first broken check.
+ */
+public class CodecTest {
+    private static final Codec[] CODECS = {JsonCodec.INSTANCE, BinaryCodec.INSTANCE};
+
+    public static void main(String[] args) {
+        for (Codec codec : CODECS) {
+            roundTripsRequests(codec);
+            roundTripsResponses(codec);
+            rejectsTruncatedFrames(codec);
+            rejectsDeepNesting(codec);
+        }
+        decodesJsonEscapes();
+        rejectsMalformedJson();
+        System.out.println("ok");
+    }
+
+    private static void roundTripsRequests(Codec codec) {
+        DictionaryRequest request = new DictionaryRequest(42, "update", "caf\u00e9", "a \"quoted\"\\old",
+                "line\nbreak\ttab\u0001 \u4e2d\u6587", null);
+        DictionaryRequest decoded = decodeRequest(codec, codec.encodeRequest(request));
+        check(decoded.getId() == 42, "id");
+        check("update".equals(decoded.getAction()), "action");
+        check("caf\u00e9".equals(decoded.getWord()), "word");
+        check("a \"quoted\"\\old".equals(decoded.getOldDefinition()), "old definition");
+        check("line\nbreak\ttab\u0001 \u4e2d\u6587".equals(decoded.getDefinition()), "definition");
+        check(decoded.getRequests() == null, "absent batch");
+
+        DictionaryRequest batch = new DictionaryRequest(7, "batch", null, null, null, List.of(
+                new DictionaryRequest(8, "query", "apple", null, null, null),
+                new DictionaryRequest(9, "add", "pear", null, "a fruit", null)));
+        decoded = decodeRequest(codec, codec.encodeRequest(batch));
+        check(decoded.getWord() == null, "null word");
+        check(decoded.getRequests().size() == 2, "batch size");
+        check(decoded.getRequests().get(1).getId() == 9, "nested id");
+        check("a fruit".equals(decoded.getRequests().get(1).getDefinition()), "nested definition");
+        check(Arrays.equals(codec.encodeRequest(batch), codec.encodeRequest(decoded)), "re-encoded batch");
+    }
+
+    private static void roundTripsResponses(Codec codec) {
+        DictionaryResponse response = new DictionaryResponse(-3, "ok", List.of(
+                new DictionaryResponse(1, "first\r\n"), new DictionaryResponse(2, null)));
+        DictionaryResponse decoded = decodeResponse(codec, codec.encodeResponse(response));
+        check(decoded.getId() == -3, "negative id");
+        check("ok".equals(decoded.getMessage()), "message");
+        check("first\r\n".equals(decoded.getResults().get(0).getMessage()), "nested message");
+        check(decoded.getResults().get(1).getMessage() == null, "null message");
+        check(Arrays.equals(codec.encodeResponse(response), codec.encodeResponse(decoded)), "re-encoded response");
+    }
+
+    private static void rejectsTruncatedFrames(Codec codec) {
+        byte[] frame = codec.encodeRequest(new DictionaryRequest(1, "add", "apple", null, "a fruit", null));
+        int[] content = content(codec, frame);
+        for (int length = 0; length < content[1]; length++) {
+            int cut = length;
+            checkRejected(() -> codec.decodeRequest(frame, content[0], cut), "request cut at " + cut);
+        }
+        byte[] response = codec.encodeResponse(new DictionaryResponse(1, "done"));
+        int[] responseContent = content(codec, response);
+        for (int length = 0; length < responseContent[1]; length++) {
+            int cut = length;
+            checkRejected(() -> codec.decodeResponse(response, responseContent[0], cut), "response cut at " + cut);
+        }
+    }
+
+    private static void rejectsDeepNesting(Codec codec) {
+        DictionaryRequest request = new DictionaryRequest(0, "query", "apple", null, null, null);
+        for (int depth = 0; depth < Constant.MAX_NESTING_DEPTH; depth++) {
+            request = new DictionaryRequest(List.of(request));
+        }
+        decodeRequest(codec, codec.encodeRequest(request)); // exactly at the limit
+        byte[] tooDeep = codec.encodeRequest(new DictionaryRequest(List.of(request)));
+        int[] content = content(codec, tooDeep);
+        checkRejected(() -> codec.decodeRequest(tooDeep, content[0], content[1]), "nesting past the limit");
+    }
+
+    private static void decodesJsonEscapes() {
+        byte[] frame = ("{\"id\":5,\"word\":\"\\u0041\\u00e9\\u4e2d\",\"definition\":\"\\/\\b\\f\\\"\\\\\","
+                + "\"unknown\":{\"a\":[1,\"]\"]},\"action\":null}").getBytes(StandardCharsets.UTF_8);
+        DictionaryRequest request = JsonCodec.INSTANCE.decodeRequest(frame, 0, frame.length);
+        check("A\u00e9\u4e2d".equals(request.getWord()), "unicode escapes");
+        check("/\b\f\"\\".equals(request.getDefinition()), "simple escapes");
+        check(request.getAction() == null, "skipped unknown field");
+    }
+
+    private static void rejectsMalformedJson() {
+        String[] malformed = {
+                "", "{", "[]", "{\"id\":}", "{\"word\":\"apple}", "{\"word\":\"\\u00\"}", "{\"word\":\"\\uzzzz\"}",
+                "{\"id\":1} trailing", "{\"id\":1,}", "{\"requests\":[{\"id\":1}}",
+        };
+        for (String json : malformed) {
+            byte[] frame = json.getBytes(StandardCharsets.UTF_8);
+            checkRejected(() -> JsonCodec.INSTANCE.decodeRequest(frame, 0, frame.length), json);
+        }
+    }
+
+    private static DictionaryRequest decodeRequest(Codec codec, byte[] frame) {
+        int[] content = content(codec, frame);
+        return codec.decodeRequest(frame, content[0], content[1]);
+    }
+
+    private static DictionaryResponse decodeResponse(Codec codec, byte[] frame) {
+        int[] content = content(codec, frame);
+        return codec.decodeResponse(frame, content[0], content[1]);
+    }
+
+    // Offset and length of a frame's content, without the length prefix or the newline
+    private static int[] content(Codec codec, byte[] frame) {
+        return codec.isLengthPrefixed() ? new int[]{Integer.BYTES, frame.length - Integer.BYTES}
+                : new int[]{0, frame.length - 1};
+    }
+
+    private static void checkRejected(Runnable decode, String what) {
+        try {
+            decode.run();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("Accepted a malformed frame: " + what);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Round trip lost the " + what);
+        }
+    }
+}
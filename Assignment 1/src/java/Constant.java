@@ -5,8 +5,37 @@
  */
 
 public class Constant {
-    public static final int NUMBER_OF_THREADS = 3;
+    public static final int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors(); // request workers
+    public static final int MAX_THREADS = 8 * NUMBER_OF_THREADS; // workers the pool may grow to under load
+    public static final double TARGET_UTILISATION = 0.75; // fraction of the workers the pool aims to keep busy
+    public static final int POOL_ADAPT_INTERVAL = 1000; // milliseconds between worker pool resizes
+    public static final int WORKER_QUEUE_SIZE = 10000; // connections waiting for a worker before more are refused
+    public static final int STREAM_QUEUE_RESERVE = 1000; // further queue slots only imports and exports may take
+    public static final int MAX_QUEUE_WAIT = 500; // milliseconds the oldest may wait before more are refused
     public static final int THREAD_TIMEOUT = 1000;
     public static final int THREAD_JOIN = 1000;
+    public static final int IDLE_TIMEOUT = 300; // seconds a connection may be silent; -Ddictionary.idle.timeout, 0 off
+    public static final int KEEP_ALIVE_INTERVAL = 60; // seconds between pings while watching; -Ddictionary.keepalive
+    public static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024; // bytes in one request frame
+    public static final int MAX_NESTING_DEPTH = 16; // levels of nested batches a decoder accepts
+    public static final String CLIENT_CODEC = "binary"; // json or binary; -Ddictionary.codec overrides it
+    public static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int SNAPSHOT_INTERVAL = 60; // seconds between dictionary snapshots
+    public static final int SUGGESTION_LIMIT = 10; // words returned by prefix and suggest
+    public static final int SUGGEST_MAX_DISTANCE = 2; // edits allowed by suggest
+    public static final int SEARCH_LIMIT = 20; // words returned by a definition search
+    public static final int QUERY_CACHE_SIZE = 10000; // rendered query responses; -Ddictionary.cache.size, 0 disables
+    public static final String LOG_LEVEL = "INFO"; // DEBUG, INFO, WARN or ERROR; -Ddictionary.log.level overrides
+    public static final int LOG_QUEUE_SIZE = 10000; // log messages waiting to be written before new ones are dropped
+    public static final int REPLICATION_BACKLOG = 100000; // records a leader keeps for followers to catch up from
+    public static final int REPLICATION_HEARTBEAT = 1000; // milliseconds between heartbeats on an idle stream
+    public static final int REPLICATION_RETRY = 1000; // milliseconds before a follower or client reconnects
+    public static final int VIRTUAL_NODES = 128; // points per node on the shard router's hash ring
+    public static final int CONNECTIONS_PER_NODE = 2; // pooled connections the shard router keeps to each node
+    public static final int EXPORT_PAGE_SIZE = 1000; // words returned by one export request
+    public static final String DICTIONARY_STORE = "heap"; // heap, offheap or mapped; -Ddictionary.store overrides
+    public static final boolean COMPRESS_DEFINITIONS = false; // pack heap definitions; -Ddictionary.compress overrides
+    public static final int COMPRESSION_TOKENS = 1 << 20; // tokens in the shared table before the rest go inline
+    public static final int EXPIRY_TICK = 100; // milliseconds per tick of the word expiry timing wheel
 
 }
@@ -0,0 +1,293 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * DefinitionCodec.java
+ * Packs a word's definitions into one byte array, using a token table shared by the whole dictionary.
+ * Definitions are split at single spaces and every token is replaced by the varint id it has in the table, so a
+ * phrase that occurs in millions of definitions is stored once. Tokens get ids in the order they are first seen,
+ * so the common ones get the short ids. The table holds at most maximumTokens tokens and never forgets one; tokens
+ * longer than MAX_TOKEN_LENGTH, or seen once the table is full, are stored inline as UTF-8 literals.
+ * Layout: per definition, [token count] then per token either [id] or [0][length][UTF-8 bytes], all varints.
+ * The packed list decodes a definition only when it is read, and walking it in order decodes each one once.
+ */
+public class DefinitionCodec {
+    private static final int LITERAL = 0;
+    private static final int MAX_TOKEN_LENGTH = 32;
+
+    private final int maximumTokens;
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Indexed by id; slot 0 is the literal marker. Republished after every new token, so readers need no lock
+    private volatile String[] tokens = new String[1024];
+    private int nextId = 1; // guarded by this
+    private final LongAdder textLength = new LongAdder();
+    private final LongAdder packedLength = new LongAdder();
+    private final LongAdder decodes = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    public DefinitionCodec(int maximumTokens) {
+        this.maximumTokens = maximumTokens;
+    }
+
+    /**
+     * @return The definitions packed into an immutable list, which counts towards the compression ratio until it is
+     * released.
+     */
+    public List<String> compress(List<String> definitions) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = 0;
+        for (String definition : definitions) {
+            String[] parts = definition.split(" ", -1);
+            writeVarint(out, parts.length);
+            for (String token : parts) {
+                int id = idFor(token);
+                writeVarint(out, id);
+                if (id == LITERAL) {
+                    byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+                    writeVarint(out, bytes.length);
+                    out.write(bytes, 0, bytes.length);
+                }
+            }
+            length += definition.length();
+        }
+        Packed packed = new Packed(out.toByteArray(), definitions.size(), length);
+        textLength.add(length);
+        packedLength.add(packed.data.length);
+        return packed;
+    }
+
+    /**
+     * Stop counting a list that is no longer stored. Lists this codec did not pack are ignored.
+     */
+    public void release(List<String> definitions) {
+        if (definitions instanceof Packed && ((Packed) definitions).codec() == this) {
+            Packed packed = (Packed) definitions;
+            textLength.add(-packed.textLength);
+            packedLength.add(-packed.data.length);
+        }
+    }
+
+    /**
+     * @return Characters of stored definition text per packed byte, or 0 if nothing is stored.
+     */
+    public double getCompressionRatio() {
+        long packed = packedLength.sum();
+        return packed == 0 ? 0 : (double) textLength.sum() / packed;
+    }
+
+    /**
+     * @return The mean time taken to decode one definition, in nanoseconds.
+     */
+    public double getAverageDecodeNanos() {
+        long count = decodes.sum();
+        return count == 0 ? 0 : (double) decodeNanos.sum() / count;
+    }
+
+    public synchronized int getTokenCount() {
+        return nextId - 1;
+    }
+
+    private int idFor(String token) {
+        if (token.length() > MAX_TOKEN_LENGTH) {
+            return LITERAL;
+        }
+        Integer id = ids.get(token);
+        return id != null ? id : intern(token);
+    }
+
+    private synchronized int intern(String token) {
+        Integer existing = ids.get(token);
+        if (existing != null) {
+            return existing;
+        }
+        if (nextId > maximumTokens) {
+            return LITERAL;
+        }
+        String[] table = tokens;
+        if (nextId == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[nextId] = token;
+        tokens = table;
+        // Only after the token is readable, since a packed list can reach a decoder as soon as the id is handed out
+        ids.put(token, nextId);
+        return nextId++;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Immutable list over packed definitions. Reading one by index skips the ones before it, so code that visits
+     * them all should iterate; the list iterators, equals, hashCode and indexOf all do.
+     */
+    private final class Packed extends AbstractList<String> {
+        private final byte[] data;
+        private final int size;
+        private final int textLength;
+
+        Packed(byte[] data, int size, int textLength) {
+            this.data = data;
+            this.size = size;
+            this.textLength = textLength;
+        }
+
+        DefinitionCodec codec() {
+            return DefinitionCodec.this;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+            }
+            return listIterator(index).next();
+        }
+
+        @Override
+        public ListIterator<String> listIterator(int index) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+            }
+            return new Cursor(index);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return listIterator(0);
+        }
+
+        /**
+         * Walks the packed bytes forwards; stepping backwards re-skips from the start.
+         */
+        private final class Cursor implements ListIterator<String> {
+            private int index;
+            private int position;
+
+            Cursor(int index) {
+                seek(index);
+            }
+
+            private void seek(int target) {
+                index = 0;
+                position = 0;
+                while (index < target) {
+                    int count = readVarint();
+                    for (int i = 0; i < count; i++) {
+                        if (readVarint() == LITERAL) {
+                            int length = readVarint(); // read before position, which readVarint() moves
+                            position += length;
+                        }
+                    }
+                    index++;
+                }
+            }
+
+            private int readVarint() {
+                int value = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[position++];
+                    value |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        return value;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public String next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                long start = System.nanoTime();
+                String[] table = tokens;
+                int count = readVarint();
+                StringBuilder definition = new StringBuilder(textLength / size + 16);
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        definition.append(' ');
+                    }
+                    int id = readVarint();
+                    if (id == LITERAL) {
+                        int length = readVarint();
+                        definition.append(new String(data, position, length, StandardCharsets.UTF_8));
+                        position += length;
+                    } else {
+                        definition.append(table[id]);
+                    }
+                }
+                index++;
+                decodes.increment();
+                decodeNanos.add(System.nanoTime() - start);
+                return definition.toString();
+            }
+
+            @Override
+            public boolean hasPrevious() {
+                return index > 0;
+            }
+
+            @Override
+            public String previous() {
+                if (index == 0) {
+                    throw new NoSuchElementException();
+                }
+                int target = index - 1;
+                seek(target);
+                String definition = next();
+                seek(target);
+                return definition;
+            }
+
+            @Override
+            public int nextIndex() {
+                return index;
+            }
+
+            @Override
+            public int previousIndex() {
+                return index - 1;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void set(String definition) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void add(String definition) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * DefinitionIndex.java
+ * Inverted index from the tokens in definitions to the words they define, for reverse lookup.
+ * Every word gets an integer id, and each token keeps a posting list of (id, occurrences) sorted by id.
+ * A new word mostly gets the next id, so indexing it appends to the spare capacity of its posting lists and publishes
+ * a new length; readers take a consistent view without locking and never see a partially written list.
+ * The ids of deleted words, whose postings are gone by then, are handed out again first, so the id tables stay as
+ * large as the most words there have been at once, however often words are deleted and added again.
+ * Results are ranked with BM25, merging the sorted posting lists of the query tokens in one pass.
+ */
+public class DefinitionIndex implements DictionaryListener {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_TOKEN_LENGTH = 2;
+
+    private final ConcurrentHashMap<String, Postings> postings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] words = new String[1024];
+    private volatile int[] lengths = new int[1024];
+    private int nextId;
+    private int[] freeIds = new int[64]; // released by unregister(), reused by register()
+    private int freeCount;
+    private long liveWords;
+    private long totalLength;
+
+    @Override
+    public void wordChanged(String word, List<String> oldDefinitions, List<String> newDefinitions) {
+        if (oldDefinitions == null && newDefinitions == null) {
+            return;
+        }
+        if (isAppend(oldDefinitions, newDefinitions)) {
+            indexAppended(ids.get(word), newDefinitions.get(newDefinitions.size() - 1));
+            return;
+        }
+        Map<String, Integer> before = oldDefinitions == null ? Map.of() : tokenCounts(oldDefinitions);
+        Map<String, Integer> after = newDefinitions == null ? Map.of() : tokenCounts(newDefinitions);
+        int id = oldDefinitions == null ? register(word, length(after)) : ids.get(word);
+        for (String token : before.keySet()) {
+            if (!after.containsKey(token)) {
+                postings.computeIfPresent(token, (key, list) -> list.remove(id) ? null : list);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : after.entrySet()) {
+            int count = entry.getValue();
+            if (!Integer.valueOf(count).equals(before.get(entry.getKey()))) {
+                postings.compute(entry.getKey(), (key, list) -> {
+                    Postings updated = list != null ? list : new Postings();
+                    updated.put(id, count);
+                    return updated;
+                });
+            }
+        }
+        if (newDefinitions == null) {
+            unregister(word, id);
+        } else if (oldDefinitions != null) {
+            resize(id, length(after));
+        }
+    }
+
+    // Appending is the common change to a long list, and only the new definition needs tokenising
+    private static boolean isAppend(List<String> oldDefinitions, List<String> newDefinitions) {
+        if (oldDefinitions == null || newDefinitions == null || newDefinitions.size() != oldDefinitions.size() + 1) {
+            return false;
+        }
+        // The off-heap stores hand out fresh copies of the strings, so compare them with equals()
+        Iterator<String> kept = newDefinitions.iterator();
+        for (String definition : oldDefinitions) {
+            if (!definition.equals(kept.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void indexAppended(int id, String definition) {
+        Map<String, Integer> added = tokenCounts(List.of(definition));
+        for (Map.Entry<String, Integer> entry : added.entrySet()) {
+            postings.compute(entry.getKey(), (key, list) -> {
+                Postings updated = list != null ? list : new Postings();
+                updated.put(id, updated.count(id) + entry.getValue());
+                return updated;
+            });
+        }
+        grow(id, length(added));
+    }
+
+    /**
+     * @return Up to limit words whose definitions contain the query tokens, best match first.
+     */
+    public List<String> search(String query, int limit) {
+        List<View> lists = new ArrayList<>();
+        for (String token : tokenCounts(List.of(query)).keySet()) {
+            Postings list = postings.get(token);
+            if (list != null) {
+                lists.add(list.view);
+            }
+        }
+        if (lists.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        String[] wordTable = words;
+        int[] lengthTable = lengths;
+        long documents;
+        double averageLength;
+        synchronized (this) {
+            documents = Math.max(1, liveWords);
+            averageLength = Math.max(1.0, (double) totalLength / documents);
+        }
+        double[] idf = new double[lists.size()];
+        int[] cursors = new int[lists.size()];
+        for (int i = 0; i < lists.size(); i++) {
+            int df = lists.get(i).size;
+            idf[i] = Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+        }
+        // Merge the posting lists in id order, keeping the best hits in a min-heap
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(hit -> hit.score));
+        while (true) {
+            int id = Integer.MAX_VALUE;
+            for (int i = 0; i < lists.size(); i++) {
+                View list = lists.get(i);
+                if (cursors[i] < list.size) {
+                    id = Math.min(id, list.ids[cursors[i]]);
+                }
+            }
+            if (id == Integer.MAX_VALUE) {
+                break;
+            }
+            double score = 0;
+            double lengthNorm = K1 * (1 - B + B * (id < lengthTable.length ? lengthTable[id] : 0) / averageLength);
+            for (int i = 0; i < lists.size(); i++) {
+                View list = lists.get(i);
+                if (cursors[i] < list.size && list.ids[cursors[i]] == id) {
+                    int tf = list.counts[cursors[i]++];
+                    score += idf[i] * tf * (K1 + 1) / (tf + lengthNorm);
+                }
+            }
+            if (best.size() < limit) {
+                best.add(new Hit(id, score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Hit(id, score));
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(Comparator.comparingDouble((Hit hit) -> -hit.score).thenComparingInt(hit -> hit.id));
+        List<String> results = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            String word = hit.id < wordTable.length ? wordTable[hit.id] : null;
+            if (word != null) { // null if the word was deleted while we searched, and its id not yet reused
+                results.add(word);
+            }
+        }
+        return results;
+    }
+
+    private synchronized int register(String word, int length) {
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        String[] wordTable = words;
+        int[] lengthTable = lengths;
+        if (id == wordTable.length) {
+            wordTable = Arrays.copyOf(wordTable, id * 2);
+            lengthTable = Arrays.copyOf(lengthTable, id * 2);
+        }
+        lengthTable[id] = length;
+        wordTable[id] = word;
+        // The volatile writes publish the new entry to lock-free readers
+        lengths = lengthTable;
+        words = wordTable;
+        ids.put(word, id);
+        liveWords++;
+        totalLength += length;
+        return id;
+    }
+
+    private synchronized void unregister(String word, int id) {
+        ids.remove(word);
+        words[id] = null;
+        liveWords--;
+        totalLength -= lengths[id];
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    private synchronized void grow(int id, int extraLength) {
+        totalLength += extraLength;
+        lengths[id] += extraLength;
+    }
+
+    private synchronized void resize(int id, int length) {
+        totalLength += length - lengths[id];
+        lengths[id] = length;
+    }
+
+    private static int length(Map<String, Integer> counts) {
+        int length = 0;
+        for (int count : counts.values()) {
+            length += count;
+        }
+        return length;
+    }
+
+    /**
+     * Split text into lower case runs of letters and digits, counting how often each occurs.
+     */
+    static Map<String, Integer> tokenCounts(List<String> texts) {
+        Map<String, Integer> counts = new HashMap<>();
+        StringBuilder token = new StringBuilder();
+        for (String text : texts) {
+            for (int i = 0; i <= text.length(); i++) {
+                char c = i < text.length() ? text.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) {
+                    token.append(Character.toLowerCase(c));
+                } else if (token.length() > 0) {
+                    if (token.length() >= MIN_TOKEN_LENGTH) {
+                        counts.merge(token.toString(), 1, Integer::sum);
+                    }
+                    token.setLength(0);
+                }
+            }
+        }
+        return counts;
+    }
+
+    // Writers are serialised by the ConcurrentHashMap bin of their token
+    private static final class Postings {
+        volatile View view = new View(new int[4], new int[4], 0);
+
+        void put(int id, int count) {
+            View current = view;
+            int index = Arrays.binarySearch(current.ids, 0, current.size, id);
+            if (index >= 0) {
+                current.counts[index] = count;
+                return;
+            }
+            int insertAt = -index - 1;
+            int size = current.size;
+            if (insertAt == size && size < current.ids.length) {
+                // Appending: older views stop before this slot, so the arrays can be shared
+                current.ids[size] = id;
+                current.counts[size] = count;
+                view = new View(current.ids, current.counts, size + 1);
+                return;
+            }
+            int capacity = size < current.ids.length ? current.ids.length : current.ids.length * 2;
+            int[] newIds = new int[capacity];
+            int[] newCounts = new int[capacity];
+            System.arraycopy(current.ids, 0, newIds, 0, insertAt);
+            System.arraycopy(current.counts, 0, newCounts, 0, insertAt);
+            System.arraycopy(current.ids, insertAt, newIds, insertAt + 1, size - insertAt);
+            System.arraycopy(current.counts, insertAt, newCounts, insertAt + 1, size - insertAt);
+            newIds[insertAt] = id;
+            newCounts[insertAt] = count;
+            view = new View(newIds, newCounts, size + 1);
+        }
+
+        int count(int id) {
+            View current = view;
+            int index = Arrays.binarySearch(current.ids, 0, current.size, id);
+            return index >= 0 ? current.counts[index] : 0;
+        }
+
+        /**
+         * @return True if the list is now empty.
+         */
+        boolean remove(int id) {
+            View current = view;
+            int index = Arrays.binarySearch(current.ids, 0, current.size, id);
+            if (index < 0) {
+                return current.size == 0;
+            }
+            int size = current.size - 1;
+            int[] newIds = Arrays.copyOf(current.ids, current.ids.length);
+            int[] newCounts = Arrays.copyOf(current.counts, current.counts.length);
+            System.arraycopy(current.ids, index + 1, newIds, index, size - index);
+            System.arraycopy(current.counts, index + 1, newCounts, index, size - index);
+            view = new View(newIds, newCounts, size);
+            return size == 0;
+        }
+    }
+
+    private static final class View {
+        final int[] ids;
+        final int[] counts;
+        final int size;
+
+        View(int[] ids, int[] counts, int size) {
+            this.ids = ids;
+            this.counts = counts;
+            this.size = size;
+        }
+    }
+
+    private static final class Hit {
+        final int id;
+        final double score;
+
+        Hit(int id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
@@ -1,81 +1,609 @@
 import java.io.*;
-import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Ruoyu Lu
  * 1466195
  * A simple dictionary class that stores words and their definitions.
- * The dictionary is stored as a ConcurrentHashMap, where the key is the word and the value is a list of definitions.
- * The dictionary can be loaded from a JSON file, saved to a JSON file, queried for a word, added a new word, deleted a word,
- * appended a new definition to an existing word, and updated a specific definition of a word.
+ * The words live in a pluggable DictionaryStore, where the key is the word and the value is a list of definitions:
+ * the heap store is a ConcurrentHashMap, the off-heap and mapped stores keep UTF-8 records outside the Java heap.
+ * The heap store can also pack the definitions with a DefinitionCodec (-Ddictionary.compress=true), trading some
+ * decoding on every read for a much smaller heap.
+ * The dictionary can be loaded from a JSON file (or line-delimited JSON, or a directory of shards), saved to it,
+ * queried for a word, added a new word, deleted a word, appended a new definition to an existing word,
+ * and updated a specific definition of a word.
+ * Secondary indexes follow every change through DictionaryListeners; the built-in word trie answers prefix
+ * completion and spelling suggestions, and the definition index answers full-text search.
+ * Rendered query responses are kept in a QueryCache that each mutation invalidates for its word.
+ * Clients can watch words and prefixes through the WatchRegistry, and words can be given a time to live, after
+ * which the ExpiryIndex deletes them.
+ * Every mutation is recorded in a write-ahead log before it is acknowledged, and the JSON file is rewritten
+ * periodically as a snapshot, so a crash loses nothing and durability costs O(mutation) rather than O(dictionary).
+ * Bulk imports are the exception: importWord() skips the log, and the importer saves a snapshot at the end instead.
+ * On a replication leader the same log records are also handed to the ReplicationLeader, in the order the words
+ * changed; a follower applies the leader's records through applyReplicated().
+ * snapshot() pins a point-in-time version (see DictionarySnapshot) for saves, full scans and consistent reads of
+ * many words. While one is open, mutations keep the definitions they replace in a per-word version chain; the
+ * chains are trimmed as snapshots close, and nothing is recorded when none is open.
  */
 public class Dictionary {
-    private static ConcurrentHashMap<String, List<String>> dictionary;
+    private static DictionaryStore dictionary;
+    private static WriteAheadLog wal;
+    // Mutations hold the read side; a snapshot holds the write side only while it rotates the log
+    private static final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // Returned by a mutation to leave the word as it was, without logging anything
+    private static final List<String> UNCHANGED = new ArrayList<>();
+    private static List<DictionaryListener> listeners;
+    private static WordTrie wordIndex;
+    private static DefinitionIndex definitionIndex;
+    private static QueryCache queryCache;
+    private static WatchRegistry watches;
+    private static ExpiryIndex expiryIndex;
+    private static DefinitionCodec definitionCodec;
+    private static ReplicationLeader replicationLeader;
+    // Versions of the open snapshots, with how many are open at each; guarded by itself
+    private static final TreeMap<Long, Integer> pinnedVersions = new TreeMap<>();
+    private static final AtomicLong clock = new AtomicLong();
+    // True while any snapshot is open; only changes under the write side of snapshotLock or with none open
+    private static volatile boolean versioning;
+    // Newest first: the definitions each word had before each change made while a snapshot was open
+    private static final ConcurrentHashMap<String, Version> history = new ConcurrentHashMap<>();
+    // Set while a batch runs on this thread: the furthest log position its mutations have to wait for
+    private static final ThreadLocal<long[]> deferredDurability = new ThreadLocal<>();
     private String fileName;
+    private ScheduledExecutorService snapshotScheduler;
 
     public Dictionary(String fileName) throws IOException {
-        dictionary = new ConcurrentHashMap<>();
         this.fileName = fileName;
+        String store = System.getProperty("dictionary.store", Constant.DICTIONARY_STORE);
+        boolean compress = Boolean.parseBoolean(
+                System.getProperty("dictionary.compress", String.valueOf(Constant.COMPRESS_DEFINITIONS)));
+        if (compress && !store.equals("heap")) {
+            throw new IOException("Definition compression needs the heap store, not " + store);
+        }
+        definitionCodec = compress ? new DefinitionCodec(Constant.COMPRESSION_TOKENS) : null;
+        switch (store) {
+            case "heap":
+                dictionary = new HeapDictionaryStore(definitionCodec);
+                break;
+            case "offheap":
+                dictionary = new OffHeapDictionaryStore(null);
+                break;
+            case "mapped":
+                dictionary = new OffHeapDictionaryStore(Paths.get(fileName).toAbsolutePath().getParent());
+                break;
+            default:
+                throw new IOException("Unknown dictionary store: " + store);
+        }
+        listeners = new CopyOnWriteArrayList<>();
+        wordIndex = new WordTrie();
+        listeners.add(wordIndex);
+        definitionIndex = new DefinitionIndex();
+        listeners.add(definitionIndex);
+        watches = new WatchRegistry();
+        listeners.add(watches);
+        expiryIndex = new ExpiryIndex(Dictionary::deleteExpired);
+        listeners.add(expiryIndex);
+        int cacheSize = Integer.getInteger("dictionary.cache.size", Constant.QUERY_CACHE_SIZE);
+        queryCache = cacheSize > 0 ? new QueryCache(cacheSize) : null;
+    }
+
+    /**
+     * Register a secondary index. Add listeners before loadDictionary() so they see the loaded words too.
+     */
+    public static void addListener(DictionaryListener listener) {
+        listeners.add(listener);
     }
 
+    /**
+     * Ship every mutation from now on to the leader's followers.
+     */
+    public static void setReplicationLeader(ReplicationLeader leader) {
+        replicationLeader = leader;
+    }
+
+    /**
+     * Load the last snapshot, replay the write-ahead log on top of it, then start logging and periodic snapshots.
+     */
     public void loadDictionary() throws IOException {
-        Gson gson = new Gson();
-        Type type = new TypeToken<ConcurrentHashMap<String, List<String>>>() {}.getType();
-        try (Reader reader = new FileReader(fileName)) {
-            ConcurrentHashMap<String, List<String>> tempDict = gson.fromJson(reader, type);
-            tempDict.forEach((key, value) -> dictionary.put(key.toLowerCase(), value)); // Convert all keys to lower case
+        Path path = Paths.get(fileName);
+        try {
+            if (Files.exists(path)) { // otherwise there is no snapshot yet and the log alone holds the dictionary
+                // Streams straight into the live map, in parallel for line-delimited and sharded layouts
+                DictionaryLoader.load(path, (key, value) ->
+                        restore(key.toLowerCase(), immutable(value.toArray(new String[0])))); // Convert all keys to lower case
+            }
         }
         catch (IOException e) {
             throw new IOException("Error loading dictionary from file: " + e.getMessage());
         }
+        try {
+            WriteAheadLog.replay(fileName, (word, definitions) ->
+                    restore(word, definitions == null ? null : immutable(definitions.toArray(new String[0]))));
+            wal = new WriteAheadLog(fileName);
+        }
+        catch (IOException e) {
+            throw new IOException("Error recovering dictionary from write-ahead log: " + e.getMessage());
+        }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dictionary-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (wal.getRecordsInSegment() > 0) {
+                    saveDictionary();
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }, Constant.SNAPSHOT_INTERVAL, Constant.SNAPSHOT_INTERVAL, TimeUnit.SECONDS);
     }
 
-    public void saveDictionary() throws IOException {
-        Gson gson = new Gson();
-        try (Writer writer = new FileWriter(fileName)) {
-            gson.toJson(dictionary, writer);
+    /**
+     * Write a snapshot of the dictionary and drop the log segments it covers.
+     * The snapshot goes to a temporary file that is fsynced and renamed over the dictionary file, so a crash
+     * leaves either the old or the new snapshot in place, never a partial one.
+     */
+    public synchronized void saveDictionary() throws IOException {
+        long coveredGeneration = -1;
+        DictionarySnapshot snapshot;
+        // Pinned at the rotation, so the snapshot holds exactly the mutations in the segments it replaces
+        snapshotLock.writeLock().lock();
+        try {
+            if (wal != null) {
+                coveredGeneration = wal.rotate();
+            }
+            snapshot = pin();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        try (snapshot) {
+            DictionaryLoader.write(Paths.get(fileName), snapshot::forEach);
+            if (wal != null) {
+                wal.deleteSegmentsUpTo(coveredGeneration);
+            }
         }
         catch (IOException e) {
             throw new IOException("Error saving dictionary to file: " + e.getMessage());
         }
     }
 
+    /**
+     * Pin the current version of the dictionary. Writers are held back only for the moment it takes to record it.
+     *
+     * @return A snapshot to read from, which must be closed when done.
+     */
+    public static DictionarySnapshot snapshot() {
+        snapshotLock.writeLock().lock();
+        try {
+            return pin();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write side of snapshotLock, so no mutation is half-way through when the version is taken
+    private static DictionarySnapshot pin() {
+        long version = clock.get();
+        synchronized (pinnedVersions) {
+            pinnedVersions.merge(version, 1, Integer::sum);
+            versioning = true;
+        }
+        return new DictionarySnapshot(version);
+    }
+
+    static void release(long version) {
+        long oldest;
+        synchronized (pinnedVersions) {
+            pinnedVersions.computeIfPresent(version, (key, count) -> count == 1 ? null : count - 1);
+            if (pinnedVersions.isEmpty()) {
+                versioning = false;
+                history.clear();
+                return;
+            }
+            oldest = pinnedVersions.firstKey();
+        }
+        // Changes up to the oldest open snapshot are visible to all of them, so their old values can go
+        for (String word : history.keySet()) {
+            history.computeIfPresent(word, (key, chain) -> chain.newerThan(oldest));
+        }
+    }
+
+    static List<String> latest(String word) {
+        return dictionary.get(word);
+    }
+
+    static Version history(String word) {
+        return history.get(word);
+    }
+
+    static List<String> words() {
+        List<String> words = new ArrayList<>();
+        dictionary.forEach((word, definitions) -> words.add(word));
+        return words;
+    }
+
+    static Set<String> changedWords() {
+        return new HashSet<>(history.keySet());
+    }
+
+    /**
+     * One link of a word's version chain: the definitions (null if absent) it had before the change at version.
+     */
+    static final class Version {
+        final long version;
+        final List<String> before;
+        final Version older;
+
+        Version(long version, List<String> before, Version older) {
+            this.version = version;
+            this.before = before;
+            this.older = older;
+        }
+
+        // Chains are immutable, so trimming copies the part that is kept
+        Version newerThan(long oldest) {
+            List<Version> kept = new ArrayList<>();
+            for (Version v = this; v != null && v.version > oldest; v = v.older) {
+                kept.add(v);
+            }
+            Version trimmed = null;
+            for (int i = kept.size() - 1; i >= 0; i--) {
+                trimmed = new Version(kept.get(i).version, kept.get(i).before, trimmed);
+            }
+            return trimmed;
+        }
+    }
+
+    /**
+     * Put (or with null, remove) a word while loading, without logging it, and let the listeners index it.
+     */
+    private static void restore(String word, List<String> definitions) {
+        dictionary.compute(word, (key, current) -> {
+            notifyListeners(key, current, definitions);
+            return definitions;
+        });
+    }
+
+    private static void notifyListeners(String word, List<String> oldDefinitions, List<String> newDefinitions) {
+        for (DictionaryListener listener : listeners) {
+            listener.wordChanged(word, oldDefinitions, newDefinitions);
+        }
+    }
+
+    /**
+     * Outcome of update(), so a caller can report why nothing changed without querying first.
+     */
+    public enum UpdateResult {
+        UPDATED, WORD_NOT_FOUND, DEFINITION_NOT_FOUND
+    }
+
+    /**
+     * Apply a change to one word atomically, log the result and wait until the log is durable.
+     * The change sees the current definitions and decides in the same step, so there is no check-then-act race.
+     *
+     * @param word   The (lower case) word to change.
+     * @param change Maps the current definitions (null if absent) to the new ones (null to remove),
+     *               or to UNCHANGED to leave the word alone.
+     * @return True if the word was changed, false if the change returned UNCHANGED.
+     */
+    private static boolean mutate(String word, Function<List<String>, List<String>> change) {
+        return mutate(word, change, Durability.DURABLE);
+    }
+
+    /**
+     * How far a mutation goes to survive a crash before it returns.
+     */
+    private enum Durability {
+        DURABLE,  // logged, and waited for
+        LOGGED,   // logged but not waited for, for changes that can be recovered elsewhere
+        UNLOGGED  // not logged at all, for imports that a snapshot makes durable
+    }
+
+    private static boolean mutate(String word, Function<List<String>, List<String>> change, Durability durability) {
+        long[] position = {0};
+        boolean[] changed = {false};
+        boolean logged = wal != null && durability != Durability.UNLOGGED;
+        snapshotLock.readLock().lock();
+        try {
+            dictionary.compute(word, (key, definitions) -> {
+                List<String> updated = change.apply(definitions);
+                if (updated == UNCHANGED) {
+                    return definitions;
+                }
+                if (versioning) {
+                    long version = clock.incrementAndGet();
+                    history.compute(key, (ignored, chain) -> new Version(version, definitions, chain));
+                }
+                if (logged || replicationLeader != null) {
+                    byte[] record = WriteAheadLog.encodeRecord(key, updated);
+                    if (logged) {
+                        position[0] = wal.logRecord(record);
+                    }
+                    if (replicationLeader != null) {
+                        replicationLeader.append(record);
+                    }
+                }
+                notifyListeners(key, definitions, updated);
+                changed[0] = true;
+                return updated;
+            });
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        // Only once the new definitions are visible, so a reader cannot cache the old ones after this
+        if (changed[0] && queryCache != null) {
+            queryCache.invalidate(word);
+        }
+        long[] deferred = deferredDurability.get();
+        if (durability != Durability.DURABLE) {
+            return changed[0];
+        }
+        if (deferred != null) {
+            deferred[0] = Math.max(deferred[0], position[0]);
+        } else {
+            awaitDurable(position[0]);
+        }
+        return changed[0];
+    }
+
+    private static void awaitDurable(long position) {
+        if (wal != null && position > 0) {
+            try {
+                wal.awaitDurable(position);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Run several operations and wait for the log once at the end instead of after every mutation.
+     * Each operation is still atomic on its own; none of them is durable before this method returns.
+     */
+    public static void runBatch(Runnable operations) {
+        long[] deferred = {0};
+        deferredDurability.set(deferred);
+        try {
+            operations.run();
+        } finally {
+            deferredDurability.remove();
+        }
+        awaitDurable(deferred[0]);
+    }
+
+    /**
+     * Apply a word's state as shipped by the replication leader.
+     * The follower does not wait for its own log: after a crash it resynchronises from the leader anyway.
+     *
+     * @param definitions The new definitions, or null to remove the word.
+     */
+    public static void applyReplicated(String word, List<String> definitions) {
+        List<String> replicated = definitions == null ? null : immutable(definitions.toArray(new String[0]));
+        mutate(word, current -> current == null ? (replicated == null ? UNCHANGED : replicated)
+                : (current.equals(replicated) ? UNCHANGED : replicated), Durability.LOGGED);
+    }
+
+    /**
+     * Put a word as part of a bulk import, replacing whatever definitions it had, without writing it to the log.
+     * Nothing imported is durable until the next saveDictionary(), which the importer runs when it is done; a crash
+     * before that loses the import but nothing else, since every log record holds the whole state of its word.
+     * Indexes, snapshots, watches and followers see the word change as they would for any other mutation.
+     *
+     * @param definitions The new definitions, or null to remove the word.
+     * @return True if the word changed.
+     */
+    public static boolean importWord(String word, List<String> definitions) {
+        List<String> imported = definitions == null ? null : immutable(definitions.toArray(new String[0]));
+        return mutate(word.toLowerCase(), current -> current == null ? (imported == null ? UNCHANGED : imported)
+                : (current.equals(imported) ? UNCHANGED : imported), Durability.UNLOGGED);
+    }
+
+    /**
+     * Make a word expire after some time, replacing any expiry it had. Expiries are not logged, so they do not
+     * survive a restart, but the deletion they cause is logged and replicated like any other.
+     *
+     * @param millis How long the word should live, or 0 to stop it expiring.
+     * @return True if the expiry was set, false if the word was not found.
+     */
+    public static boolean expire(String word, long millis) {
+        String key = word.toLowerCase();
+        boolean[] found = {false};
+        mutate(key, definitions -> {
+            if (definitions != null) {
+                found[0] = true;
+                expiryIndex.expireAfter(key, millis);
+            }
+            return UNCHANGED;
+        }, Durability.LOGGED);
+        return found[0];
+    }
+
+    // Nobody waits for an expiry, so the wheel's thread does not wait for the log either
+    private static void deleteExpired(String word, Object expiry) {
+        mutate(word, definitions -> definitions != null && expiryIndex.isCurrent(word, expiry) ? null : UNCHANGED,
+                Durability.LOGGED);
+    }
+
+    /**
+     * @return The number of words waiting to expire.
+     */
+    public static int getExpiringWordCount() {
+        return expiryIndex.size();
+    }
+
+    /**
+     * Send an event to the sink whenever a word matching the pattern changes (see WatchRegistry).
+     *
+     * @return A handle for unwatch().
+     */
+    public static WatchRegistry.Watch watch(String pattern, long id, Consumer<DictionaryResponse> sink) {
+        return watches.watch(pattern, id, sink);
+    }
+
+    public static void unwatch(WatchRegistry.Watch watch) {
+        watches.unwatch(watch);
+    }
+
+    /**
+     * Visit every word. Words changed during the walk may or may not be seen.
+     */
+    public static void forEach(BiConsumer<String, List<String>> action) {
+        dictionary.forEach(action);
+    }
+
+    /**
+     * Page through the words in alphabetical order.
+     *
+     * @param after  Only words after this one are returned; "" for the first page.
+     * @param filter Only words it accepts are returned.
+     * @param limit  The maximum number of words to return.
+     * @return The first matching words after the given one, in alphabetical order.
+     */
+    public static List<String> wordsAfter(String after, Predicate<String> filter, int limit) {
+        // The trie is ordered, so a page starts at the cursor instead of rescanning the store
+        return wordIndex.wordsAfter(after, filter, limit);
+    }
+
+    /**
+     * Definitions are never modified in place: every change builds a new immutable list and swaps it in,
+     * so readers can use whatever list they got without locking.
+     */
+    private static List<String> immutable(String[] definitions) {
+        return Collections.unmodifiableList(Arrays.asList(definitions));
+    }
+
     /**
      * Query for a word in the dictionary.
      *
      * @param word The word to search for.
-     * @return The definitions of the word, or null if the word is not found.
+     * @return The (unmodifiable) definitions of the word, or null if the word is not found.
      */
     public static List<String> query(String word) {
         word = word.toLowerCase();
         return dictionary.get(word);
     }
 
+    /**
+     * Query for a word and render the response, serving repeated lookups from the query cache.
+     *
+     * @param word     The word to search for.
+     * @param renderer Turns the definitions (null if the word is not found) into the response.
+     * @return The rendered response.
+     */
+    public static String queryRendered(String word, Function<List<String>, String> renderer) {
+        word = word.toLowerCase();
+        if (queryCache == null) {
+            return renderer.apply(dictionary.get(word));
+        }
+        String cached = queryCache.get(word);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = queryCache.stamp(word);
+        String rendered = renderer.apply(dictionary.get(word));
+        queryCache.put(word, rendered, stamp);
+        return rendered;
+    }
+
+    /**
+     * @return The fraction of cached queries answered from the cache, or 0 if the cache is disabled.
+     */
+    public static double getQueryCacheHitRatio() {
+        return queryCache == null ? 0 : queryCache.getHitRatio();
+    }
+
+    /**
+     * @return Characters of definition text per stored byte, or 0 if compression is disabled.
+     */
+    public static double getCompressionRatio() {
+        return definitionCodec == null ? 0 : definitionCodec.getCompressionRatio();
+    }
+
+    /**
+     * @return The mean time taken to decode one compressed definition in nanoseconds, or 0 if compression is disabled.
+     */
+    public static double getAverageDecodeNanos() {
+        return definitionCodec == null ? 0 : definitionCodec.getAverageDecodeNanos();
+    }
+
+    /**
+     * Complete a prefix from the word index.
+     *
+     * @param prefix The start of the word.
+     * @param limit  The maximum number of words to return.
+     * @return Words starting with the prefix, in alphabetical order.
+     */
+    public static List<String> complete(String prefix, int limit) {
+        return wordIndex.complete(prefix.toLowerCase(), limit);
+    }
+
+    /**
+     * Suggest words close to a (possibly misspelled) word.
+     *
+     * @param word  The word to match.
+     * @param limit The maximum number of words to return.
+     * @return Words within Constant.SUGGEST_MAX_DISTANCE edits, closest first.
+     */
+    public static List<String> suggest(String word, int limit) {
+        return wordIndex.suggest(word.toLowerCase(), Constant.SUGGEST_MAX_DISTANCE, limit);
+    }
+
+    /**
+     * Search the definitions for words, ranked by relevance.
+     *
+     * @param query The terms to look for.
+     * @param limit The maximum number of words to return.
+     * @return Words whose definitions contain any of the terms, best match first.
+     */
+    public static List<String> search(String query, int limit) {
+        return definitionIndex.search(query, limit);
+    }
+
     /**
      * Add a new word and its definition to the dictionary.
      *
      * @param word       The word to add.
      * @param definition The definition of the word.
+     * @return           True if the word was added, false if it already exists.
      */
-    public static void add(String word, String definition) {
+    public static boolean add(String word, String definition) {
         word = word.toLowerCase();
-        List<String> definitions = dictionary.computeIfAbsent(word, k -> new ArrayList<>());
-        definitions.add(definition);
+        return mutate(word, definitions -> definitions != null ? UNCHANGED : immutable(new String[]{definition}));
     }
 
     /**
      * Delete a word from the dictionary.
      *
      * @param word The word to delete.
+     * @return     True if the word was deleted, false if it was not found.
      */
-    public static void delete(String word) {
+    public static boolean delete(String word) {
         word = word.toLowerCase();
-        dictionary.remove(word);
+        return mutate(word, definitions -> definitions == null ? UNCHANGED : null);
     }
 
     /**
@@ -83,11 +611,18 @@ public class Dictionary {
      *
      * @param word       The word to append to.
      * @param definition The new definition to append.
+     * @return           True if the definition was appended, false if the word was not found.
      */
-    public static void append(String word, String definition) {
+    public static boolean append(String word, String definition) {
         word = word.toLowerCase();
-        List<String> definitions = dictionary.computeIfAbsent(word, k -> new ArrayList<>());
-        definitions.add(definition);
+        return mutate(word, definitions -> {
+            if (definitions == null) {
+                return UNCHANGED;
+            }
+            String[] updated = definitions.toArray(new String[definitions.size() + 1]);
+            updated[definitions.size()] = definition;
+            return immutable(updated);
+        });
     }
 
     /**
@@ -96,18 +631,25 @@ public class Dictionary {
      * @param word           The word to update.
      * @param oldDefinition  The old definition to replace.
      * @param newDefinition  The new definition to use.
-     * @return               True if the update was successful, false otherwise.
+     * @return               Whether the definition was updated, or which part of the request was not found.
      */
-    public static boolean update(String word, String oldDefinition, String newDefinition) {
+    public static UpdateResult update(String word, String oldDefinition, String newDefinition) {
         word = word.toLowerCase();
-        List<String> definitions = dictionary.get(word);
-        if (definitions != null) {
+        UpdateResult[] result = {UpdateResult.WORD_NOT_FOUND};
+        mutate(word, definitions -> {
+            if (definitions == null || definitions.isEmpty()) {
+                return UNCHANGED;
+            }
             int index = definitions.indexOf(oldDefinition);
-            if (index != -1) {
-                definitions.set(index, newDefinition);
-                return true;
+            if (index == -1) {
+                result[0] = UpdateResult.DEFINITION_NOT_FOUND;
+                return UNCHANGED;
             }
-        }
-        return false;
+            String[] updated = definitions.toArray(new String[0]);
+            updated[index] = newDefinition;
+            result[0] = UpdateResult.UPDATED;
+            return immutable(updated);
+        });
+        return result[0];
     }
-}
\ No newline at end of file
+}
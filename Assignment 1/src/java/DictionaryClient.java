@@ -1,7 +1,13 @@
 import java.io.*;
-import java.net.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import javax.swing.*;
-import com.google.gson.Gson;
 
 /**
  * Ruoyu Lu
@@ -10,18 +16,40 @@ import com.google.gson.Gson;
  * The main client class, responsible for initializing the client-side user interface, processing user
  * inputs, and sending requests to the server over the network. It also handles receiving responses from
  * the server and displaying them to the user.
+ * Requests go through a pipelining DictionaryConnection; batch() sends many requests in one frame.
+ * The host and port given are those of the leader. Read replicas can be listed with
+ * -Ddictionary.replicas=host:port,host:port: reads then go to the replicas in turn and writes to the leader.
+ * A replica that fails is skipped for Constant.REPLICATION_RETRY milliseconds, and when none is reachable reads
+ * fall back to the leader. Replication is asynchronous, so a read from a replica may not yet see a write that
+ * was just acknowledged.
+ * With -Ddictionary.shards=host:port,host:port the dictionary is partitioned across those servers instead, and
+ * every request goes through a ShardRouter. Watches need a direct connection, so they are not available then.
+ * Bulk imports and exports of dictionary files stream over a connection of their own (see RecordStream), so the
+ * other requests are not held up behind them; they too need a single server.
+ * The server closes connections that stay idle. The client then reconnects when it next has a request, and retries a
+ * read that failed because the connection went down under it; a write is not retried, as it may have been applied.
+ * Watches are re-established on the new connection, straight away if the old one fails while watching, but changes
+ * made while it was down are not replayed.
  */
 public class DictionaryClient {
-    private BufferedReader in;
-    private PrintWriter out;
-    private Socket socket;
-    private Gson gson;
+    private DictionaryConnection connection;
+    private ShardRouter router;
+    private String host;
+    private int port;
+    private final String[] replicaAddresses;
+    private final DictionaryConnection[] replicas;
+    private final long[] replicaRetryAt;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Map<String, Consumer<DictionaryResponse>> watches = new ConcurrentHashMap<>(); // by pattern
 
     public DictionaryClient(String host, String port) throws IOException {
         int portNum = Integer.parseInt(port);
+        String replicaList = System.getProperty("dictionary.replicas", "");
+        replicaAddresses = replicaList.isBlank() ? new String[0] : replicaList.split(",");
+        replicas = new DictionaryConnection[replicaAddresses.length];
+        replicaRetryAt = new long[replicaAddresses.length];
         connectToServer(host, portNum);
         new UserInterface(this);
-        this.gson = new Gson();
     }
 
     public static void main(String[] args) {
@@ -37,18 +65,71 @@ public class DictionaryClient {
     }
 
     private void connectToServer(String host, int port) throws IOException {
-        socket = new Socket(host, port);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
+        String shards = System.getProperty("dictionary.shards");
+        if (shards != null) {
+            router = new ShardRouter(Arrays.asList(shards.split(",")));
+            return;
+        }
+        connection = openConnection(host, port);
+        this.host = host;
+        this.port = port;
         System.out.println("Connected to server");
     }
 
+    private DictionaryConnection openConnection(String host, int port) throws IOException {
+        DictionaryConnection opened = new DictionaryConnection(host, port);
+        try {
+            for (Map.Entry<String, Consumer<DictionaryResponse>> watch : watches.entrySet()) {
+                opened.watch(watch.getKey(), watch.getValue());
+            }
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        opened.setFailureListener(this::onConnectionFailed);
+        return opened;
+    }
+
+    /**
+     * @return The connection to the leader, reconnected if the last one has failed or been closed by the server.
+     */
+    private synchronized DictionaryConnection connection() throws IOException {
+        if (!connection.isOpen()) {
+            connection = openConnection(host, port);
+            System.out.println("Reconnected to server");
+        }
+        return connection;
+    }
+
+    // A watcher might wait forever for an event that can no longer arrive, so it reconnects without a request
+    private void onConnectionFailed() {
+        if (watches.isEmpty()) {
+            return;
+        }
+        Thread reconnect = new Thread(() -> {
+            while (!watches.isEmpty()) {
+                try {
+                    connection();
+                    return;
+                } catch (IOException e) {
+                    try {
+                        Thread.sleep(Constant.REPLICATION_RETRY);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }, "dictionary-client-reconnect");
+        reconnect.setDaemon(true);
+        reconnect.start();
+    }
+
     public String add(String word, String definition) throws IOException {
         return sendRequest(new DictionaryRequest("add", word, null, definition));
     }
 
     public String query(String word) throws IOException {
-        return sendRequest(new DictionaryRequest("query", word, null, null));
+        return read(new DictionaryRequest("query", word, null, null));
     }
 
     public String delete(String word) throws IOException {
@@ -63,8 +144,177 @@ public class DictionaryClient {
         return sendRequest(new DictionaryRequest("update", word, oldDefinition, newDefinition));
     }
 
+    public String prefix(String prefix) throws IOException {
+        return read(new DictionaryRequest("prefix", prefix, null, null));
+    }
+
+    public String suggest(String word) throws IOException {
+        return read(new DictionaryRequest("suggest", word, null, null));
+    }
+
+    public String search(String terms) throws IOException {
+        return read(new DictionaryRequest("search", terms, null, null));
+    }
+
+    /**
+     * @param seconds How long the word should live, or 0 to stop it expiring.
+     */
+    public String expire(String word, long seconds) throws IOException {
+        return sendRequest(new DictionaryRequest("expire", word, null, String.valueOf(seconds)));
+    }
+
+    /**
+     * Watch a word, or with a trailing '*' every word starting with a prefix.
+     *
+     * @param events Receives a description of each change, on the connection's reader thread.
+     */
+    public String watch(String pattern, Consumer<String> events) throws IOException {
+        if (router != null) {
+            throw new IOException("Watches are not supported on a sharded dictionary");
+        }
+        Consumer<DictionaryResponse> subscriber = event -> events.accept(describe(event));
+        // Recorded first, so that a reconnection while the request is under way watches the pattern too
+        watches.put(pattern.toLowerCase(), subscriber);
+        try {
+            return connection().watch(pattern, subscriber).getMessage();
+        } catch (IOException e) {
+            watches.remove(pattern.toLowerCase(), subscriber);
+            throw e;
+        }
+    }
+
+    public String unwatch(String pattern) throws IOException {
+        if (router != null) {
+            throw new IOException("Watches are not supported on a sharded dictionary");
+        }
+        watches.remove(pattern.toLowerCase());
+        return connection().unwatch(pattern).getMessage();
+    }
+
+    /**
+     * Import a dictionary file, in any layout DictionaryLoader reads, replacing the definitions of words that exist.
+     */
+    public String importFile(String path) throws IOException {
+        try (DictionaryConnection bulk = bulkConnection()) {
+            return bulk.importWords(sink -> DictionaryLoader.load(Paths.get(path), sink)).getMessage();
+        }
+    }
+
+    /**
+     * Export the whole dictionary, as of one moment, to a file in the layout DictionaryLoader picks for its name.
+     */
+    public String exportFile(String path) throws IOException {
+        try (DictionaryConnection bulk = bulkConnection()) {
+            long[] count = {0};
+            DictionaryLoader.write(Paths.get(path), sink -> {
+                try {
+                    count[0] = bulk.export(null, sink);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return "Exported " + count[0] + " words to " + path;
+        }
+    }
+
+    private DictionaryConnection bulkConnection() throws IOException {
+        if (router != null) {
+            throw new IOException("Bulk import and export are not supported on a sharded dictionary");
+        }
+        return new DictionaryConnection(host, port);
+    }
+
+    private static String describe(DictionaryResponse event) {
+        StringBuilder description = new StringBuilder(event.getMessage());
+        if (event.getResults() != null) {
+            for (DictionaryResponse definition : event.getResults()) {
+                description.append("\n  ").append(definition.getMessage());
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Send several requests in one frame.
+     *
+     * @return The server's response to each request, in order.
+     */
+    public List<String> batch(List<DictionaryRequest> requests) throws IOException {
+        List<String> messages = new ArrayList<>();
+        DictionaryRequest batch = new DictionaryRequest(requests);
+        boolean readOnly = requests.stream().noneMatch(request -> ClientHandler.isWrite(request.getAction()));
+        DictionaryResponse response = router != null ? router.call(batch)
+                : readOnly ? callReplica(batch) : callLeader(batch, false);
+        for (DictionaryResponse result : response.getResults()) {
+            messages.add(result.getMessage());
+        }
+        return messages;
+    }
+
     private String sendRequest(DictionaryRequest request) throws IOException {
-        out.println(gson.toJson(request));
-        return gson.fromJson(in.readLine(), DictionaryResponse.class).getMessage();
+        return (router != null ? router.call(request) : callLeader(request, false)).getMessage();
+    }
+
+    private String read(DictionaryRequest request) throws IOException {
+        return (router != null ? router.call(request) : callReplica(request)).getMessage();
+    }
+
+    // Try each replica once, starting after the one used last, then the leader
+    private DictionaryResponse callReplica(DictionaryRequest request) throws IOException {
+        for (int attempt = 0; attempt < replicas.length; attempt++) {
+            int index = Math.floorMod(nextReplica.getAndIncrement(), replicas.length);
+            DictionaryConnection replica = replica(index);
+            if (replica == null) {
+                continue;
+            }
+            try {
+                return replica.call(request);
+            } catch (IOException e) {
+                dropReplica(index, replica);
+            }
+        }
+        return callLeader(request, true);
+    }
+
+    /**
+     * @param retry True if the request may be sent again when the connection fails before it is answered.
+     */
+    private DictionaryResponse callLeader(DictionaryRequest request, boolean retry) throws IOException {
+        DictionaryConnection current = connection();
+        try {
+            return current.call(request);
+        } catch (IOException e) {
+            if (!retry || current.isOpen()) {
+                throw e;
+            }
+            return connection().call(request);
+        }
+    }
+
+    private synchronized DictionaryConnection replica(int index) {
+        if ((replicas[index] == null || !replicas[index].isOpen())
+                && System.currentTimeMillis() >= replicaRetryAt[index]) {
+            String address = replicaAddresses[index].trim();
+            int colon = address.lastIndexOf(':');
+            try {
+                replicas[index] = new DictionaryConnection(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1)));
+            } catch (IOException e) {
+                replicaRetryAt[index] = System.currentTimeMillis() + Constant.REPLICATION_RETRY;
+            }
+        }
+        return replicas[index];
+    }
+
+    private synchronized void dropReplica(int index, DictionaryConnection replica) {
+        if (replicas[index] == replica) {
+            replicas[index] = null;
+            replicaRetryAt[index] = System.currentTimeMillis() + Constant.REPLICATION_RETRY;
+            try {
+                replica.close();
+            } catch (IOException e) {
+                // already broken
+            }
+        }
     }
 }
\ No newline at end of file
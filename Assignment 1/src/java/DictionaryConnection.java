@@ -0,0 +1,422 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * DictionaryConnection.java
+ * Client side of one connection to the dictionary server, with pipelining.
+ * Every request is tagged with a fresh id and written straight away, without waiting for earlier replies; a
+ * reader thread matches each response to its request by id and completes the caller's future. Any number of
+ * threads may send on the same connection.
+ * The codec is chosen with -Ddictionary.codec=json|binary; binary is negotiated when the connection opens and
+ * falls back to JSON if the server does not support it.
+ * watch() subscribes to changes: the server pushes events tagged with the id of the watch request, and the reader
+ * thread hands them to the subscriber.
+ * importWords() and export() move words in bulk as record streams (see RecordStream).
+ * The server closes connections that stay idle, so while a connection watches anything it pings the server every
+ * Constant.KEEP_ALIVE_INTERVAL seconds (-Ddictionary.keepalive, 0 not to). A ping still unanswered when the next is
+ * due fails the connection, which is how a watcher finds out that the server or the network has gone away.
+ */
+public class DictionaryConnection implements Closeable {
+    private static final ScheduledExecutorService KEEP_ALIVE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dictionary-connection-keep-alive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Codec codec;
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentHashMap<Long, CompletableFuture<DictionaryResponse>> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Consumer<DictionaryResponse>> subscribers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> subscriptions = new ConcurrentHashMap<>(); // watch ids by pattern
+    private final ConcurrentHashMap<Long, BiConsumer<String, List<String>>> exports = new ConcurrentHashMap<>();
+    private volatile IOException failure;
+    private Runnable failureListener; // guarded by this
+    private final ScheduledFuture<?> keepAlive;
+    private CompletableFuture<DictionaryResponse> lastPing; // only touched by the keep-alive thread
+    private volatile boolean importing; // the stream holds the connection, so pings would have to wait for it
+
+    public DictionaryConnection(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new BufferedOutputStream(socket.getOutputStream());
+        codec = negotiate(System.getProperty("dictionary.codec", Constant.CLIENT_CODEC));
+        Thread reader = new Thread(this::readResponses, "dictionary-connection-reader");
+        reader.setDaemon(true);
+        reader.start();
+        int interval = Integer.getInteger("dictionary.keepalive", Constant.KEEP_ALIVE_INTERVAL);
+        keepAlive = interval > 0 ? KEEP_ALIVE.scheduleWithFixedDelay(this::keepAlive, interval, interval,
+                TimeUnit.SECONDS) : null;
+    }
+
+    /**
+     * @param listener Runs once, on whichever thread notices, if the connection fails; not if it is closed.
+     */
+    public void setFailureListener(Runnable listener) {
+        boolean failed;
+        synchronized (this) {
+            failureListener = listener;
+            failed = failure != null;
+        }
+        if (failed) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Send a request without waiting for the reply.
+     *
+     * @return A future completed with the response, or exceptionally if the connection fails first.
+     */
+    public CompletableFuture<DictionaryResponse> send(DictionaryRequest request) {
+        return send(request, nextId.incrementAndGet());
+    }
+
+    private CompletableFuture<DictionaryResponse> send(DictionaryRequest request, long id) {
+        request.setId(id);
+        CompletableFuture<DictionaryResponse> response = new CompletableFuture<>();
+        pending.put(id, response);
+        IOException failed = failure;
+        if (failed != null) {
+            pending.remove(id);
+            response.completeExceptionally(failed);
+            return response;
+        }
+        byte[] frame = codec.encodeRequest(request);
+        try {
+            synchronized (out) {
+                out.write(frame);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        return response;
+    }
+
+    /**
+     * Import words in bulk: they are streamed to the server, which applies them as they arrive and saves a
+     * snapshot at the end. Requests from other threads are held back until the whole stream has been sent.
+     * If the source fails, the connection is closed before the stream ends, so the import is never acknowledged;
+     * the words sent until then have been applied all the same.
+     *
+     * @return The server's answer, sent once the import is durable.
+     */
+    public DictionaryResponse importWords(RecordStream.Source words) throws IOException {
+        DictionaryRequest request = new DictionaryRequest("import", null, null, null);
+        request.setId(nextId.incrementAndGet());
+        CompletableFuture<DictionaryResponse> response = new CompletableFuture<>();
+        pending.put(request.getId(), response);
+        if (failure != null) {
+            pending.remove(request.getId());
+            throw failure;
+        }
+        RecordStream records = new RecordStream(codec);
+        synchronized (out) {
+            importing = true;
+            try {
+                out.write(codec.encodeRequest(request));
+                // Sources may call the sink from several threads, while this one holds the stream for them
+                words.forEach((word, definitions) -> {
+                    synchronized (records) {
+                        records.add(word, definitions);
+                        if (records.isFull()) {
+                            try {
+                                out.write(records.take());
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }
+                });
+                out.write(records.take());
+                out.write(RecordStream.end(codec));
+                out.flush();
+            } catch (IOException | UncheckedIOException e) {
+                IOException cause = e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause()
+                        : (IOException) e;
+                fail(cause);
+                socket.close();
+                throw cause;
+            } finally {
+                importing = false;
+            }
+        }
+        return await(response);
+    }
+
+    /**
+     * Export the words of a snapshot the server takes on receiving the request.
+     *
+     * @param ranges Only export words in these hash ranges (see ShardRouter.rangeFilter), or null for all.
+     * @param sink   Receives every word with its definitions, on the reader thread, so a slow sink slows the
+     *               server down rather than filling memory.
+     * @return The number of words exported.
+     */
+    public long export(String ranges, BiConsumer<String, List<String>> sink) throws IOException {
+        long id = nextId.incrementAndGet();
+        long[] count = {0};
+        exports.put(id, (word, definitions) -> {
+            count[0]++;
+            sink.accept(word, definitions);
+        });
+        DictionaryResponse response;
+        try {
+            response = await(send(new DictionaryRequest("export", ranges, null, null), id));
+        } finally {
+            exports.remove(id);
+        }
+        if (!response.getMessage().startsWith(RecordStream.EXPORT_STARTED)) {
+            throw new IOException("Export refused: " + response.getMessage());
+        }
+        return count[0];
+    }
+
+    /**
+     * Send a request and wait for its reply.
+     */
+    public DictionaryResponse call(DictionaryRequest request) throws IOException {
+        return await(send(request));
+    }
+
+    private static DictionaryResponse await(CompletableFuture<DictionaryResponse> response) throws IOException {
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the server");
+        }
+    }
+
+    /**
+     * Watch a word, or with a trailing '*' every word starting with a prefix (see WatchRegistry).
+     *
+     * @param events Receives every event; it runs on the reader thread, so it must be quick. An exception it throws
+     *               is reported on standard error and does not affect the connection.
+     * @return The server's acknowledgement.
+     */
+    public DictionaryResponse watch(String pattern, Consumer<DictionaryResponse> events) throws IOException {
+        long id = nextId.incrementAndGet();
+        // Subscribed before sending; the acknowledgement still goes to the caller, as it is always sent first
+        subscribers.put(id, events);
+        Long previous = subscriptions.put(pattern.toLowerCase(), id);
+        if (previous != null) {
+            subscribers.remove(previous);
+        }
+        return await(send(new DictionaryRequest("watch", pattern, null, null), id));
+    }
+
+    public DictionaryResponse unwatch(String pattern) throws IOException {
+        Long id = subscriptions.remove(pattern.toLowerCase());
+        if (id != null) {
+            subscribers.remove(id);
+        }
+        return call(new DictionaryRequest("unwatch", pattern, null, null));
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (failure == null) {
+                failure = new IOException("Connection closed"); // so that the failure listener does not run
+            }
+        }
+        if (keepAlive != null) {
+            keepAlive.cancel(false);
+        }
+        socket.close();
+    }
+
+    /**
+     * @return False once the connection has failed; a failed connection cannot be used again.
+     */
+    public boolean isOpen() {
+        return failure == null && !socket.isClosed();
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    // Runs on the keep-alive thread. A connection that watches nothing does not ping: it may as well be closed
+    // when idle, and its client reconnects when it has a request.
+    private void keepAlive() {
+        if (!isOpen()) {
+            keepAlive.cancel(false);
+            return;
+        }
+        if (subscriptions.isEmpty() || importing) {
+            return;
+        }
+        if (lastPing != null && !lastPing.isDone()) {
+            fail(new IOException("Server stopped answering pings"));
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // failed already
+            }
+            return;
+        }
+        lastPing = send(new DictionaryRequest("ping", null, null, null));
+    }
+
+    private Codec negotiate(String preferred) throws IOException {
+        if (!preferred.equals("binary")) {
+            return JsonCodec.INSTANCE;
+        }
+        out.write((Codec.NEGOTIATE_BINARY + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        byte[] reply = readLine();
+        if (reply != null && new String(reply, StandardCharsets.UTF_8).equals(Codec.BINARY_ACCEPTED)) {
+            return BinaryCodec.INSTANCE;
+        }
+        return JsonCodec.INSTANCE; // the server rejected the line as an invalid request
+    }
+
+    private void readResponses() {
+        try {
+            byte[] frame;
+            while ((frame = readFrame()) != null) {
+                DictionaryResponse response;
+                try {
+                    response = codec.decodeResponse(frame, 0, frame.length);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed response: " + e.getMessage());
+                }
+                CompletableFuture<DictionaryResponse> waiting = pending.remove(response.getId());
+                BiConsumer<String, List<String>> export = exports.get(response.getId());
+                if (export != null && response.getMessage().startsWith(RecordStream.EXPORT_STARTED)) {
+                    RuntimeException error = readExport(export);
+                    if (error != null && waiting != null) {
+                        waiting.completeExceptionally(new IOException("Export failed: " + error.getMessage(), error));
+                        continue;
+                    }
+                }
+                if (waiting != null) {
+                    waiting.complete(response);
+                    continue;
+                }
+                Consumer<DictionaryResponse> subscriber = subscribers.get(response.getId());
+                if (subscriber != null) {
+                    try {
+                        subscriber.accept(response);
+                    } catch (RuntimeException e) {
+                        // The caller's bug, not the connection's: the other requests and watches carry on
+                        System.err.println("Watch event handler failed: " + e);
+                    }
+                }
+            }
+            fail(new EOFException("Server closed the connection"));
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException | Error e) {
+            // Nothing reads the socket any more, so fail the waiting requests rather than leave them hanging
+            fail(new IOException("Reading responses failed: " + e, e));
+            try {
+                socket.close();
+            } catch (IOException closing) {
+                // failed already
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Read an export stream up to the empty frame that ends it.
+     *
+     * @return The first exception thrown by the sink, which does not see the rest of the stream.
+     */
+    private RuntimeException readExport(BiConsumer<String, List<String>> sink) throws IOException {
+        RuntimeException[] error = {null};
+        byte[] frame;
+        while ((frame = readFrame()) != null && frame.length > 0) {
+            RecordStream.read(codec, frame, (word, definitions) -> {
+                if (error[0] == null) {
+                    try {
+                        sink.accept(word, definitions);
+                    } catch (RuntimeException e) {
+                        error[0] = e;
+                    }
+                }
+            });
+        }
+        if (frame == null) {
+            throw new EOFException("Server closed the connection during an export");
+        }
+        return error[0];
+    }
+
+    /**
+     * @return The content of the next frame, or null at the end of the stream.
+     */
+    private byte[] readFrame() throws IOException {
+        if (!codec.isLengthPrefixed()) {
+            return readLine();
+        }
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > Constant.MAX_REQUEST_SIZE) {
+            throw new IOException("Bad frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    private byte[] readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toByteArray();
+            }
+            line.write(b);
+        }
+        return line.toByteArray();
+    }
+
+    private void fail(IOException e) {
+        Runnable listener = null;
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+                listener = failureListener;
+            }
+        }
+        for (Long id : pending.keySet()) {
+            CompletableFuture<DictionaryResponse> waiting = pending.remove(id);
+            if (waiting != null) {
+                waiting.completeExceptionally(e);
+            }
+        }
+        if (keepAlive != null) {
+            keepAlive.cancel(false);
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
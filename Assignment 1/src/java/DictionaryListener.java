@@ -0,0 +1,19 @@
+import java.util.List;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * DictionaryListener.java
+ * Receives every change to a word so that secondary indexes can be kept up to date incrementally.
+ * Listeners run inside the atomic update of the word, so changes to one word arrive in order; they must be quick
+ * and must not call back into the Dictionary.
+ */
+public interface DictionaryListener {
+
+    /**
+     * @param word           The (lower case) word that changed.
+     * @param oldDefinitions The definitions before the change, or null if the word did not exist.
+     * @param newDefinitions The definitions after the change, or null if the word was removed.
+     */
+    void wordChanged(String word, List<String> oldDefinitions, List<String> newDefinitions);
+}
@@ -0,0 +1,247 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * DictionaryLoader.java
+ * Streams dictionary files into a map without materialising them first.
+ * Three layouts are supported:
+ * - a JSON object of word -> definitions (the original dictionary.json format), parsed with a streaming JsonReader;
+ * - line-delimited JSON (.ndjson / .jsonl), one {"word": [definitions]} object per line, split into byte ranges
+ *   that are parsed in parallel;
+ * - a directory of such files (shards), loaded in parallel.
+ * Entries go straight to the given sink, so peak memory is the dictionary itself rather than twice its size.
+ */
+public class DictionaryLoader {
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final String SNAPSHOT_PART = "part-00000.ndjson";
+
+    /**
+     * Load a dictionary file or shard directory.
+     *
+     * @param path The file or directory to load.
+     * @param sink Receives every word (not yet lower-cased) with its definitions; must be thread-safe.
+     */
+    public static void load(Path path, BiConsumer<String, List<String>> sink) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            for (Path part : listParts(path)) {
+                addTasks(part, sink, tasks);
+            }
+        } else {
+            addTasks(path, sink, tasks);
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Write a dictionary in the layout that load() reads back from the same path.
+     * Plain JSON files stay one JSON object, NDJSON files and directories are written one entry per line.
+     * The output goes to a temporary file that is fsynced and renamed into place.
+     *
+     * @param dictionary Visits every entry to write, e.g. a DictionarySnapshot's forEach.
+     */
+    public static void write(Path path, Consumer<BiConsumer<String, List<String>>> dictionary) throws IOException {
+        boolean directory = Files.isDirectory(path);
+        Path target = directory ? path.resolve(SNAPSHOT_PART) : path;
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        boolean lineDelimited = directory || isLineDelimited(target);
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            JsonWriter document = lineDelimited ? null : new JsonWriter(writer);
+            if (document != null) {
+                document.beginObject();
+            }
+            dictionary.accept((word, definitions) -> {
+                try {
+                    if (document != null) {
+                        writeEntry(document, word, definitions);
+                    } else {
+                        // A JsonWriter takes a single top-level value, so each line gets its own
+                        JsonWriter line = new JsonWriter(writer);
+                        line.beginObject();
+                        writeEntry(line, word, definitions);
+                        line.endObject();
+                        line.flush();
+                        writer.write('\n');
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (document != null) {
+                document.endObject();
+                document.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (directory) {
+            // The new part holds everything, the older shards are now redundant
+            for (Path part : listParts(path)) {
+                if (!part.equals(target)) {
+                    Files.delete(part);
+                }
+            }
+        }
+    }
+
+    private static void addTasks(Path file, BiConsumer<String, List<String>> sink, List<Callable<Void>> tasks)
+            throws IOException {
+        if (!isLineDelimited(file)) {
+            tasks.add(() -> {
+                loadJson(file, sink);
+                return null;
+            });
+            return;
+        }
+        long size = Files.size(file);
+        int chunks = (int) Math.max(1, Math.min(Constant.LOADER_THREADS, size / MIN_CHUNK_SIZE));
+        long chunkSize = size / chunks;
+        for (int i = 0; i < chunks; i++) {
+            long start = i * chunkSize;
+            long end = i == chunks - 1 ? size : start + chunkSize;
+            tasks.add(() -> {
+                loadLines(file, start, end, sink);
+                return null;
+            });
+        }
+    }
+
+    private static void runAll(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.size() == 1) {
+            call(tasks.get(0));
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), Constant.LOADER_THREADS));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading dictionary");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void call(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void loadJson(Path file, BiConsumer<String, List<String>> sink) throws IOException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            try {
+                reader.peek();
+            } catch (EOFException e) {
+                return; // empty file, nothing saved yet; an EOF anywhere later is a truncated file, and fails
+            }
+            readEntries(reader, sink);
+        }
+    }
+
+    /**
+     * Parse the lines that start inside [start, end). A chunk that does not begin at the start of the file skips
+     * the partial line it lands in, which the previous chunk finishes.
+     */
+    private static void loadLines(Path file, long start, long end, BiConsumer<String, List<String>> sink)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = Math.max(0, start - 1);
+            channel.position(position);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            if (start > 0) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if (b == '\n') {
+                        break;
+                    }
+                }
+            }
+            while (position < end) {
+                line.reset();
+                int b;
+                while ((b = in.read()) != -1 && b != '\n') {
+                    line.write(b);
+                }
+                position += line.size() + (b == '\n' ? 1 : 0);
+                String text = line.toString(StandardCharsets.UTF_8).trim();
+                if (!text.isEmpty()) {
+                    try (JsonReader reader = new JsonReader(new StringReader(text))) {
+                        readEntries(reader, sink);
+                    }
+                }
+                if (b == -1) {
+                    break;
+                }
+            }
+        }
+    }
+
+    static void readEntries(JsonReader reader, BiConsumer<String, List<String>> sink) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String word = reader.nextName();
+            List<String> definitions = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                definitions.add(reader.nextString());
+            }
+            reader.endArray();
+            sink.accept(word, definitions);
+        }
+        reader.endObject();
+    }
+
+    private static void writeEntry(JsonWriter json, String word, List<String> definitions) throws IOException {
+        json.name(word);
+        json.beginArray();
+        for (String definition : definitions) {
+            json.value(definition);
+        }
+        json.endArray();
+    }
+
+    private static boolean isLineDelimited(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl");
+    }
+
+    private static List<Path> listParts(Path directory) throws IOException {
+        List<Path> parts = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{json,ndjson,jsonl}")) {
+            for (Path part : stream) {
+                parts.add(part);
+            }
+        }
+        return parts;
+    }
+}
@@ -1,14 +1,20 @@
+import java.util.List;
+
 /**
  * Ruoyu Lu
  * 1466195
  * This class is used to represent a dictionary request.
  * It contains the action, word, old definition, and new definition.
+ * The id is chosen by the client and echoed in the response, so requests can be pipelined; a "batch" request
+ * carries a list of requests instead of a word.
  */
 public class DictionaryRequest {
+    private long id;
     private String action;
     private String word;
     private String oldDefinition;
     private String definition;
+    private List<DictionaryRequest> requests;
 
     public DictionaryRequest(String action, String word, String oldDefinition, String definition) {
         this.action = action;
@@ -17,6 +23,29 @@ public class DictionaryRequest {
         this.definition = definition;
     }
 
+    public DictionaryRequest(long id, String action, String word, String oldDefinition, String definition,
+                             List<DictionaryRequest> requests) {
+        this.id = id;
+        this.action = action;
+        this.word = word;
+        this.oldDefinition = oldDefinition;
+        this.definition = definition;
+        this.requests = requests;
+    }
+
+    public DictionaryRequest(List<DictionaryRequest> requests) {
+        this.action = "batch";
+        this.requests = requests;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public String getAction() {
         return action;
     }
@@ -32,4 +61,8 @@ public class DictionaryRequest {
     public String getDefinition() {
         return definition;
     }
-}
\ No newline at end of file
+
+    public List<DictionaryRequest> getRequests() {
+        return requests;
+    }
+}
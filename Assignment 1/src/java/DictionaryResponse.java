@@ -1,17 +1,41 @@
+import java.util.List;
+
 /**
  * Ruoyu Lu
  * 1466195
  * DictionaryResponse class is used to send the response message to the client.
- * It has a single field message which is the response message.
+ * It has a message field which is the response message, the id of the request it answers,
+ * and for a batch request the results of the individual requests, in order.
  */
 public class DictionaryResponse {
+    private long id;
     private String message;
+    private List<DictionaryResponse> results;
 
     public DictionaryResponse(String message) {
         this.message = message;
     }
 
+    public DictionaryResponse(long id, String message) {
+        this.id = id;
+        this.message = message;
+    }
+
+    public DictionaryResponse(long id, String message, List<DictionaryResponse> results) {
+        this.id = id;
+        this.message = message;
+        this.results = results;
+    }
+
+    public long getId() {
+        return id;
+    }
+
     public String getMessage() {
         return message;
     }
+
+    public List<DictionaryResponse> getResults() {
+        return results;
+    }
 }
@@ -1,50 +1,92 @@
 import javax.swing.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.awt.GraphicsEnvironment;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.*;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Ruoyu Lu
  * 1466195
  * DictionaryServer.java
  * Server class for the dictionary server.
- * The server listens for incoming client connections and creates a new ClientHandler thread for each client.
- * The ClientHandler thread reads the client's request, processes it, and sends a response back to the client.
- * The server uses a thread pool to manage the ClientHandler threads.
+ * The server listens for incoming client connections and creates a new ClientHandler for each client.
+ * A single selector thread accepts connections and reads from all of them; the ClientHandler cuts the bytes into
+ * requests, which are processed on a thread pool and answered with non-blocking writes.
+ * Connections therefore cost no thread of their own, and thousands of clients can be served at once.
+ * Once a second the selector thread also looks for idle connections: one that has gone quiet gives up its read
+ * buffer, and one that has moved no bytes either way for Constant.IDLE_TIMEOUT seconds (-Ddictionary.idle.timeout,
+ * 0 to keep them forever) is closed, which also rids the server of clients that vanished without closing. Clients
+ * that watch words ping to stay connected, and the others reconnect when they next have a request.
+ * The pool starts at one worker per CPU and resizes itself to the load; when it falls too far behind, new requests
+ * are answered "Server busy" straight away instead of waiting in an ever longer queue (see ThreadPool).
  * The server also keeps track of the number of connected clients and the number of processed requests.
+ * The counters are LongAdders and the GUI samples them on a timer, and log messages go through an AsyncLogger,
+ * so neither costs a request more than a few nanoseconds.
+ * With -Ddictionary.replication.port=N the server is a replication leader and streams its mutations to followers
+ * connecting on port N; with -Ddictionary.leader=host:N it follows that leader and serves reads only.
  * The server can be started and stopped using the startServer() and stopServer() methods.
- * The server can be run as a standalone application with a GUI interface or from the command line.
+ * The server can be run as a standalone application with a GUI interface, or headless with "--headless" (or
+ * when no display is available).
  */
 public class DictionaryServer {
+    private static final int IDLE_CHECK_INTERVAL = 1000; // milliseconds between looks for idle connections
+
     private final ThreadPool threadPool;
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
     private final Dictionary dictionary;
-    private ServerInterface gui;
-    private AtomicInteger connectedClients;
-    private AtomicInteger processedRequests;
+    private final AsyncLogger logger;
+    private ReplicationLeader replicationLeader;
+    private ReplicationFollower replicationFollower;
+    private final LongAdder connectedClients = new LongAdder();
+    private final LongAdder processedRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
     private final String port;
     private final String fileName;
+    private final long idleTimeout; // nanoseconds, or 0 to keep idle connections
 
     public DictionaryServer(int numberOfThreads, String port , String fileName) {
-        this.threadPool = new ThreadPool(numberOfThreads);
+        this.threadPool = new ThreadPool(numberOfThreads, Constant.MAX_THREADS, this::log);
         this.port = port;
         this.fileName = fileName;
+        this.idleTimeout = TimeUnit.SECONDS.toNanos(Integer.getInteger("dictionary.idle.timeout",
+                Constant.IDLE_TIMEOUT));
         try {
             this.dictionary = new Dictionary(fileName);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        this.connectedClients = new AtomicInteger(0);
-        this.processedRequests = new AtomicInteger(0);
+        String level = System.getProperty("dictionary.log.level", Constant.LOG_LEVEL);
+        this.logger = new AsyncLogger(AsyncLogger.Level.valueOf(level.toUpperCase()), Constant.LOG_QUEUE_SIZE,
+                System.out);
     }
 
     public static void main(String[] args) throws IOException {
-        //args[0] = port, args[1] = fileName
+        //args[0] = port, args[1] = fileName, args[2] = optional "--headless"
         DictionaryServer server = new DictionaryServer(Constant.NUMBER_OF_THREADS,args[0],args[1]);
-        ServerInterface gui = new ServerInterface(server.dictionary);
-        server.setGUI(gui);
-        SwingUtilities.invokeLater(() -> gui.setVisible(true));
+        boolean headless = GraphicsEnvironment.isHeadless() || (args.length > 2 && args[2].equals("--headless"));
+        if (headless) {
+            // Without the window there is no close event to save on, so save on shutdown instead
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.dictionary.saveDictionary();
+                } catch (IOException e) {
+                    System.err.println("Error saving dictionary: " + e.getMessage());
+                }
+                server.logger.close();
+            }));
+        } else {
+            ServerInterface gui = new ServerInterface(server, server.dictionary);
+            server.setGUI(gui);
+            SwingUtilities.invokeLater(() -> gui.setVisible(true));
+        }
         try {
             server.startServer();
         } catch (IOException e) {
@@ -53,63 +95,212 @@ public class DictionaryServer {
     }
 
     public void setGUI(ServerInterface gui) {
-        this.gui = gui;
+        logger.setSink(gui::appendLog);
     }
 
     public void startServer() throws IOException {
         dictionary.loadDictionary();
+        if (Dictionary.getCompressionRatio() > 0) {
+            log(String.format("Definitions compressed %.1fx", Dictionary.getCompressionRatio()));
+        }
+        startReplication();
         try {
             int portNum = Integer.parseInt(port);
-            serverSocket = new ServerSocket(portNum);
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(portNum));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
             log("Server started on port " + port);
 
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    log("Client connected: " + clientSocket.getInetAddress().getHostAddress());
-                    threadPool.execute(new ClientHandler(clientSocket, dictionary, this));
-                    updateConnectedClients(1);
-                } catch (IOException e) {
-                    log("Exception accepting client connection: " + e.getMessage());
+            long nextIdleCheck = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted() && serverChannel.isOpen()) {
+                selector.select(IDLE_CHECK_INTERVAL);
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+                long now = System.nanoTime();
+                if (now - nextIdleCheck >= 0) {
+                    checkIdleConnections(now);
+                    nextIdleCheck = now + TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL);
                 }
             }
         } catch (IOException e) {
-            log("Could not listen on port " + port + ": " + e.getMessage());
+            log(AsyncLogger.Level.ERROR, "Could not listen on port " + port + ": " + e.getMessage());
         } finally {
             stopServer();
         }
     }
 
+    private void startReplication() throws IOException {
+        String leader = System.getProperty("dictionary.leader");
+        if (leader != null) {
+            int colon = leader.lastIndexOf(':');
+            replicationFollower = new ReplicationFollower(leader.substring(0, colon),
+                    Integer.parseInt(leader.substring(colon + 1)), this);
+            replicationFollower.start();
+        }
+        Integer replicationPort = Integer.getInteger("dictionary.replication.port");
+        if (replicationPort != null) {
+            replicationLeader = new ReplicationLeader(replicationPort, this);
+            Dictionary.setReplicationLeader(replicationLeader);
+            replicationLeader.start();
+        }
+    }
+
+    /**
+     * @return True if this server follows a leader, and so must not accept writes from clients.
+     */
+    public boolean isReadOnly() {
+        return replicationFollower != null;
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            acceptClient();
+            return;
+        }
+        ClientHandler handler = (ClientHandler) key.attachment();
+        try {
+            if (key.isReadable()) {
+                handler.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                handler.onWritable();
+            }
+        } catch (IOException e) {
+            log(AsyncLogger.Level.WARN, "Error handling client: " + e.getMessage());
+            handler.close();
+        } catch (CancelledKeyException e) {
+            // closed by a worker in the meantime
+        }
+    }
+
+    private void checkIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof ClientHandler) {
+                ((ClientHandler) key.attachment()).checkIdle(now, idleTimeout);
+            }
+        }
+    }
+
+    private void acceptClient() {
+        try {
+            SocketChannel clientChannel = serverChannel.accept();
+            if (clientChannel == null) {
+                return;
+            }
+            clientChannel.configureBlocking(false);
+            clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (isLoggable(AsyncLogger.Level.INFO)) {
+                log("Client connected: "
+                        + ((InetSocketAddress) clientChannel.getRemoteAddress()).getAddress().getHostAddress());
+            }
+            ClientHandler handler = new ClientHandler(clientChannel, dictionary, this);
+            handler.setKey(clientChannel.register(selector, SelectionKey.OP_READ, handler));
+            updateConnectedClients(1);
+        } catch (IOException e) {
+            log(AsyncLogger.Level.WARN, "Exception accepting client connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run a request on the worker pool, even when it is overloaded, as long as its queue has room.
+     *
+     * @return False if the queue was full and the task was refused.
+     */
+    public boolean execute(Runnable task) {
+        return threadPool.execute(task);
+    }
+
+    /**
+     * Run a request on the worker pool unless it is overloaded.
+     *
+     * @return False if the task was refused, and the requests it would have processed should be turned away.
+     */
+    public boolean tryExecute(Runnable task) {
+        return threadPool.tryExecute(task);
+    }
+
+    /**
+     * Run a task on the selector thread, which owns the interest sets of the selection keys.
+     */
+    public void onSelectorThread(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
     public void stopServer() {
-        if (serverSocket != null && !serverSocket.isClosed()) {
+        if (serverChannel != null && serverChannel.isOpen()) {
             try {
-                serverSocket.close();
+                serverChannel.close();
             } catch (IOException e) {
-                log("Error closing server socket: " + e.getMessage());
+                log(AsyncLogger.Level.WARN, "Error closing server socket: " + e.getMessage());
             }
         }
+        if (selector != null) {
+            selector.wakeup();
+        }
         threadPool.shutdown();
+        if (replicationLeader != null) {
+            replicationLeader.stop();
+        }
+        if (replicationFollower != null) {
+            replicationFollower.stop();
+        }
         log("Server stopped.");
     }
 
     public void updateConnectedClients(int delta) {
-        int newCount = connectedClients.addAndGet(delta);
-        if (gui != null) {
-            gui.updateClientCount(newCount);
-        }
+        connectedClients.add(delta);
     }
 
     public void incrementRequestCount() {
-        int newCount = processedRequests.incrementAndGet();
-        if (gui != null) {
-            gui.updateRequestCount(newCount);
-        }
+        processedRequests.increment();
+    }
+
+    public long getConnectedClients() {
+        return connectedClients.sum();
+    }
+
+    public long getProcessedRequests() {
+        return processedRequests.sum();
+    }
+
+    public void incrementRejectedCount() {
+        rejectedRequests.increment();
+    }
+
+    /**
+     * @return The number of requests answered "Server busy" because the worker pool was overloaded.
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    public ThreadPool getThreadPool() {
+        return threadPool;
+    }
+
+    public boolean isLoggable(AsyncLogger.Level level) {
+        return logger.isLoggable(level);
     }
 
     public void log(String message) {
-        System.out.println(message);
-        if (gui != null) {
-            gui.appendLog(message);
-        }
+        logger.log(AsyncLogger.Level.INFO, message);
+    }
+
+    public void log(AsyncLogger.Level level, String message) {
+        logger.log(level, message);
     }
-}
\ No newline at end of file
+}
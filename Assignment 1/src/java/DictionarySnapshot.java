@@ -0,0 +1,88 @@
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * DictionarySnapshot.java
+ * Read-only view of the dictionary as it was at one version, obtained from Dictionary.snapshot().
+ * The store only holds the latest definitions of each word; while any snapshot is open, every mutation also
+ * records the definitions it replaced, tagged with its version. A snapshot reads the latest definitions and
+ * then undoes whatever was recorded after its own version, so neither readers nor writers wait for each other.
+ * Close the snapshot when done: the recorded versions are dropped once no open snapshot needs them.
+ */
+public class DictionarySnapshot implements AutoCloseable {
+    private final long version;
+    private boolean closed;
+
+    DictionarySnapshot(long version) {
+        this.version = version;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param word The (lower case) word to look up.
+     * @return The definitions of the word at this snapshot's version, or null if it did not exist then.
+     */
+    public List<String> get(String word) {
+        // The current value first: a writer records the old value before it installs the new one
+        List<String> current = Dictionary.latest(word);
+        Dictionary.Version oldestNewer = null;
+        for (Dictionary.Version v = Dictionary.history(word); v != null && v.version > version; v = v.older) {
+            oldestNewer = v;
+        }
+        return oldestNewer != null ? oldestNewer.before : current;
+    }
+
+    /**
+     * Visit every word that existed at this snapshot's version, each exactly once.
+     */
+    public void forEach(BiConsumer<String, List<String>> action) {
+        for (String word : words()) {
+            List<String> definitions = get(word);
+            if (definitions != null) {
+                action.accept(word, definitions);
+            }
+        }
+    }
+
+    /**
+     * List the words to visit for a walk that goes at its own pace, such as a streamed export.
+     *
+     * @return Every word that existed at this snapshot's version, each once, along with words added since, for
+     *         which get() returns null.
+     */
+    public List<String> words() {
+        // The walk over the live store is only weakly consistent, but a word it misses or returns twice must
+        // have changed during the walk, so it is in the history collected afterwards
+        List<String> words = Dictionary.words();
+        Set<String> changed = Dictionary.changedWords();
+        Set<String> visited = new HashSet<>();
+        int kept = 0;
+        for (String word : words) {
+            if (!changed.contains(word) || visited.add(word)) {
+                words.set(kept++, word); // compacted in place, as the list can hold tens of millions of words
+            }
+        }
+        words.subList(kept, words.size()).clear();
+        for (String word : changed) {
+            if (!visited.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            Dictionary.release(version);
+        }
+    }
+}
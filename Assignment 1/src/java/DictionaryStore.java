@@ -0,0 +1,47 @@
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * DictionaryStore.java
+ * Storage engine behind the Dictionary: maps a lower case word to its list of definitions.
+ * compute() must be atomic per word; the other mutations are built on it.
+ * The engine is chosen with -Ddictionary.store=heap|offheap|mapped (default Constant.DICTIONARY_STORE).
+ */
+public interface DictionaryStore {
+
+    /**
+     * @return The definitions of the word, or null if the word is not stored.
+     */
+    List<String> get(String word);
+
+    /**
+     * Atomically replace the definitions of a word.
+     *
+     * @param word   The word to change.
+     * @param change Maps the word and its current definitions (null if absent) to the new definitions,
+     *               null to remove the word, or the very same list to leave it untouched.
+     * @return The definitions stored afterwards.
+     */
+    List<String> compute(String word, BiFunction<String, List<String>, List<String>> change);
+
+    /**
+     * Visit every word. Entries changed during the walk may or may not be seen.
+     */
+    void forEach(BiConsumer<String, List<String>> action);
+
+    /**
+     * @return The number of words stored.
+     */
+    long size();
+
+    default void put(String word, List<String> definitions) {
+        compute(word, (key, current) -> definitions);
+    }
+
+    default void remove(String word) {
+        compute(word, (key, current) -> null);
+    }
+}
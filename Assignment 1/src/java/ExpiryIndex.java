@@ -0,0 +1,71 @@
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * ExpiryIndex.java
+ * Per-word time to live. Each expiring word has a timeout on a TimingWheel, so expiring words costs nothing until
+ * they are due and no scan of the dictionary is ever needed. A word that is deleted loses its expiry, while add,
+ * append and update leave it in place.
+ * Expiries live in memory only: they are not logged, so after a restart the words they covered no longer expire.
+ */
+public class ExpiryIndex implements DictionaryListener {
+    private final TimingWheel wheel = new TimingWheel(Constant.EXPIRY_TICK, "dictionary-expiry");
+    private final ConcurrentHashMap<String, Expiry> expiries = new ConcurrentHashMap<>();
+    private final BiConsumer<String, Object> onExpiry;
+
+    /**
+     * @param onExpiry Called on the wheel's thread with a word and the expiry that fell due. The expiry may have
+     *                 been replaced or removed in the meantime, which isCurrent() tells.
+     */
+    public ExpiryIndex(BiConsumer<String, Object> onExpiry) {
+        this.onExpiry = onExpiry;
+    }
+
+    @Override
+    public void wordChanged(String word, List<String> oldDefinitions, List<String> newDefinitions) {
+        if (newDefinitions == null) {
+            cancel(expiries.remove(word));
+        }
+    }
+
+    /**
+     * Set, replace or (with millis of 0 or less) remove the expiry of a word. Call while the word is locked.
+     */
+    public void expireAfter(String word, long millis) {
+        if (millis <= 0) {
+            cancel(expiries.remove(word));
+            return;
+        }
+        Expiry expiry = new Expiry();
+        cancel(expiries.put(word, expiry));
+        // Registered before it is scheduled, so even an immediate expiry finds itself current
+        expiry.timeout = wheel.schedule(millis, () -> onExpiry.accept(word, expiry));
+    }
+
+    /**
+     * @return True if the expiry is still the one set for the word. Call while the word is locked.
+     */
+    public boolean isCurrent(String word, Object expiry) {
+        return expiries.get(word) == expiry;
+    }
+
+    /**
+     * @return The number of words waiting to expire.
+     */
+    public int size() {
+        return expiries.size();
+    }
+
+    private static void cancel(Expiry expiry) {
+        if (expiry != null && expiry.timeout != null) {
+            expiry.timeout.cancel();
+        }
+    }
+
+    private static final class Expiry {
+        volatile TimingWheel.Timeout timeout;
+    }
+}
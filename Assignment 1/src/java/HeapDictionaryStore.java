@@ -0,0 +1,58 @@
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * HeapDictionaryStore.java
+ * The original storage engine: a ConcurrentHashMap of Java strings on the heap.
+ * Fastest to read, but every entry costs several objects, so very large dictionaries put pressure on the GC.
+ * With a DefinitionCodec each word's definitions are stored as one packed byte array instead, decoded when read.
+ */
+public class HeapDictionaryStore implements DictionaryStore {
+    private final ConcurrentHashMap<String, List<String>> map = new ConcurrentHashMap<>();
+    private final DefinitionCodec codec;
+
+    public HeapDictionaryStore() {
+        this(null);
+    }
+
+    /**
+     * @param codec Packs the stored definitions, or null to keep them as strings.
+     */
+    public HeapDictionaryStore(DefinitionCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public List<String> get(String word) {
+        return map.get(word);
+    }
+
+    @Override
+    public List<String> compute(String word, BiFunction<String, List<String>, List<String>> change) {
+        if (codec == null) {
+            return map.compute(word, change);
+        }
+        return map.compute(word, (key, current) -> {
+            List<String> updated = change.apply(key, current);
+            if (updated == current) {
+                return current;
+            }
+            codec.release(current);
+            return updated == null ? null : codec.compress(updated);
+        });
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, List<String>> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public long size() {
+        return map.mappingCount();
+    }
+}
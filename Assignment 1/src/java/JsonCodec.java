@@ -0,0 +1,343 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * JsonCodec.java
+ * Hand-written JSON codec for the fixed request and response schema, one object per line.
+ * It reads the UTF-8 bytes in a single pass without reflection or an intermediate tree, creating only the field
+ * strings themselves, and writes straight into one StringBuilder. The output is the same JSON Gson produced
+ * (minus Gson's HTML escaping, which JSON does not need), and unknown fields are skipped, so it interoperates
+ * with older Gson-based peers.
+ */
+public class JsonCodec implements Codec {
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    @Override
+    public boolean isLengthPrefixed() {
+        return false;
+    }
+
+    @Override
+    public byte[] encodeRequest(DictionaryRequest request) {
+        StringBuilder json = new StringBuilder(128);
+        writeRequest(json, request);
+        return json.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeResponse(DictionaryResponse response) {
+        StringBuilder json = new StringBuilder(128);
+        writeResponse(json, response);
+        return json.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public DictionaryRequest decodeRequest(byte[] frame, int offset, int length) {
+        Parser parser = new Parser(frame, offset, offset + length);
+        DictionaryRequest request = parser.readRequest(0);
+        parser.expectEnd();
+        return request;
+    }
+
+    @Override
+    public DictionaryResponse decodeResponse(byte[] frame, int offset, int length) {
+        Parser parser = new Parser(frame, offset, offset + length);
+        DictionaryResponse response = parser.readResponse(0);
+        parser.expectEnd();
+        return response;
+    }
+
+    private static void writeRequest(StringBuilder json, DictionaryRequest request) {
+        json.append("{\"id\":").append(request.getId());
+        writeField(json, "action", request.getAction());
+        writeField(json, "word", request.getWord());
+        writeField(json, "oldDefinition", request.getOldDefinition());
+        writeField(json, "definition", request.getDefinition());
+        if (request.getRequests() != null) {
+            json.append(",\"requests\":[");
+            for (int i = 0; i < request.getRequests().size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                writeRequest(json, request.getRequests().get(i));
+            }
+            json.append(']');
+        }
+        json.append('}');
+    }
+
+    private static void writeResponse(StringBuilder json, DictionaryResponse response) {
+        json.append("{\"id\":").append(response.getId());
+        writeField(json, "message", response.getMessage());
+        if (response.getResults() != null) {
+            json.append(",\"results\":[");
+            for (int i = 0; i < response.getResults().size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                writeResponse(json, response.getResults().get(i));
+            }
+            json.append(']');
+        }
+        json.append('}');
+    }
+
+    // Null fields are left out, as Gson does
+    private static void writeField(StringBuilder json, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        json.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static final class Parser {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        Parser(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.position = start;
+            this.end = end;
+        }
+
+        DictionaryRequest readRequest(int depth) {
+            checkDepth(depth);
+            long id = 0;
+            String action = null, word = null, oldDefinition = null, definition = null;
+            List<DictionaryRequest> requests = null;
+            expect('{');
+            if (!tryConsume('}')) {
+                do {
+                    String name = readString();
+                    expect(':');
+                    switch (name) {
+                        case "id": id = readLong(); break;
+                        case "action": action = readNullableString(); break;
+                        case "word": word = readNullableString(); break;
+                        case "oldDefinition": oldDefinition = readNullableString(); break;
+                        case "definition": definition = readNullableString(); break;
+                        case "requests":
+                            if (!tryConsumeNull()) {
+                                requests = new ArrayList<>();
+                                expect('[');
+                                if (!tryConsume(']')) {
+                                    do {
+                                        requests.add(readRequest(depth + 1));
+                                    } while (tryConsume(','));
+                                    expect(']');
+                                }
+                            }
+                            break;
+                        default: skipValue();
+                    }
+                } while (tryConsume(','));
+                expect('}');
+            }
+            return new DictionaryRequest(id, action, word, oldDefinition, definition, requests);
+        }
+
+        DictionaryResponse readResponse(int depth) {
+            checkDepth(depth);
+            long id = 0;
+            String message = null;
+            List<DictionaryResponse> results = null;
+            expect('{');
+            if (!tryConsume('}')) {
+                do {
+                    String name = readString();
+                    expect(':');
+                    switch (name) {
+                        case "id": id = readLong(); break;
+                        case "message": message = readNullableString(); break;
+                        case "results":
+                            if (!tryConsumeNull()) {
+                                results = new ArrayList<>();
+                                expect('[');
+                                if (!tryConsume(']')) {
+                                    do {
+                                        results.add(readResponse(depth + 1));
+                                    } while (tryConsume(','));
+                                    expect(']');
+                                }
+                            }
+                            break;
+                        default: skipValue();
+                    }
+                } while (tryConsume(','));
+                expect('}');
+            }
+            return new DictionaryResponse(id, message, results);
+        }
+
+        // Nested batches are parsed recursively, so a hostile frame must not be able to exhaust the stack
+        private void checkDepth(int depth) {
+            if (depth > Constant.MAX_NESTING_DEPTH) {
+                throw error("Batches nested too deeply");
+            }
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (position != end) {
+                throw error("Unexpected data after the object");
+            }
+        }
+
+        private String readNullableString() {
+            return tryConsumeNull() ? null : readString();
+        }
+
+        private String readString() {
+            expect('"');
+            int start = position;
+            boolean escaped = false;
+            while (position < end && bytes[position] != '"') {
+                if (bytes[position] == '\\') {
+                    escaped = true;
+                    position++;
+                }
+                position++;
+            }
+            if (position >= end) {
+                throw error("Unterminated string");
+            }
+            // Escapes are ASCII, so the raw bytes can be decoded first and unescaped afterwards
+            String raw = new String(bytes, start, position - start, StandardCharsets.UTF_8);
+            position++;
+            return escaped ? unescape(raw) : raw;
+        }
+
+        private String unescape(String raw) {
+            StringBuilder value = new StringBuilder(raw.length());
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escape = raw.charAt(++i);
+                switch (escape) {
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (i + 4 >= raw.length()) {
+                            throw error("Bad unicode escape");
+                        }
+                        value.append((char) Integer.parseInt(raw, i + 1, i + 5, 16));
+                        i += 4;
+                        break;
+                    default: value.append(escape); // " \ /
+                }
+            }
+            return value.toString();
+        }
+
+        private long readLong() {
+            skipWhitespace();
+            boolean negative = tryConsume('-');
+            long value = 0;
+            int start = position;
+            while (position < end && bytes[position] >= '0' && bytes[position] <= '9') {
+                value = value * 10 + (bytes[position++] - '0');
+            }
+            if (position == start) {
+                throw error("Expected a number");
+            }
+            while (position < end && (bytes[position] == '.' || bytes[position] == 'e' || bytes[position] == 'E'
+                    || bytes[position] == '+' || bytes[position] == '-' || Character.isDigit(bytes[position]))) {
+                position++; // ids are integers; ignore any fraction or exponent
+            }
+            return negative ? -value : value;
+        }
+
+        private void skipValue() {
+            skipWhitespace();
+            if (position >= end) {
+                throw error("Expected a value");
+            }
+            byte b = bytes[position];
+            if (b == '"') {
+                readString();
+            } else if (b == '{' || b == '[') {
+                int depth = 0;
+                do {
+                    b = bytes[position];
+                    if (b == '"') {
+                        readString();
+                        continue;
+                    }
+                    if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (b == '}' || b == ']') {
+                        depth--;
+                    }
+                    position++;
+                } while (depth > 0 && position < end);
+            } else {
+                while (position < end && bytes[position] != ',' && bytes[position] != '}' && bytes[position] != ']') {
+                    position++;
+                }
+            }
+        }
+
+        private boolean tryConsumeNull() {
+            skipWhitespace();
+            if (end - position >= 4 && bytes[position] == 'n' && bytes[position + 1] == 'u'
+                    && bytes[position + 2] == 'l' && bytes[position + 3] == 'l') {
+                position += 4;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean tryConsume(char c) {
+            skipWhitespace();
+            if (position < end && bytes[position] == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!tryConsume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < end && (bytes[position] == ' ' || bytes[position] == '\t'
+                    || bytes[position] == '\r' || bytes[position] == '\n')) {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + position);
+        }
+    }
+}
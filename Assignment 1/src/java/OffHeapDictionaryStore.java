@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * OffHeapDictionaryStore.java
+ * Storage engine that keeps words and definitions as UTF-8 bytes outside the Java heap, so heap usage and GC
+ * pauses stay flat however many words are stored.
+ * The store is split into segments, each guarded by its own read/write lock. A segment has:
+ * - an open-addressing index (linear probing) of 8-byte slots, each packing a hash tag, a chunk number and an offset;
+ * - an arena of chunks that records are appended to: [key length][value length][key][count ([length][definition])*].
+ * A changed word gets a new record and the old one becomes garbage; once garbage outweighs live data the segment
+ * copies its live records into fresh chunks.
+ * Chunks and indexes are direct buffers, or memory-mapped temporary files when a map directory is given (direct
+ * buffers count against -XX:MaxDirectMemorySize, mapped files only against disk and page cache).
+ */
+public class OffHeapDictionaryStore implements DictionaryStore {
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_SLOTS = 1 << 10;
+    private static final int MAX_SLOTS = 1 << 27; // keeps one index within a single buffer
+    private static final long EMPTY = 0;
+    private static final long DELETED = 1; // live slots always have the top bit set, so neither value is ambiguous
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = 1 << 26;
+    private static final int MAX_CHUNKS = 1 << 16;
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+    private final Path mapDirectory;
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * @param mapDirectory Directory for memory-mapped arena files, or null to use direct memory.
+     */
+    public OffHeapDictionaryStore(Path mapDirectory) throws IOException {
+        this.mapDirectory = mapDirectory;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public List<String> get(String word) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.readLock().lock();
+        try {
+            int index = segment.find(key, hash);
+            return index < 0 ? null : segment.readDefinitions(segment.slotAt(index));
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> compute(String word, BiFunction<String, List<String>, List<String>> change) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int index = segment.find(key, hash);
+            long slot = index < 0 ? EMPTY : segment.slotAt(index);
+            List<String> current = index < 0 ? null : segment.readDefinitions(slot);
+            List<String> updated = change.apply(word, current);
+            if (updated == current) {
+                return current;
+            }
+            if (index >= 0) {
+                segment.release(slot);
+            }
+            if (updated == null) {
+                segment.delete(index);
+            } else {
+                long written = segment.write(key, encodeDefinitions(updated), hash);
+                if (index >= 0) {
+                    segment.setSlot(index, written);
+                } else {
+                    segment.insert(written, hash);
+                }
+            }
+            segment.compactIfWasteful();
+            return updated;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not grow off-heap dictionary storage", e);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, List<String>> action) {
+        for (Segment segment : segments) {
+            // Copy one segment at a time so the action never runs under a segment lock
+            List<Map.Entry<String, List<String>>> entries = new ArrayList<>(segment.count);
+            segment.lock.readLock().lock();
+            try {
+                for (int i = 0; i < segment.slots; i++) {
+                    long slot = segment.slotAt(i);
+                    if (isLive(slot)) {
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                                new String(segment.readKey(slot), StandardCharsets.UTF_8), segment.readDefinitions(slot)));
+                    }
+                }
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+            for (Map.Entry<String, List<String>> entry : entries) {
+                action.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    private ByteBuffer allocate(int size) throws IOException {
+        if (mapDirectory == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        Path file = Files.createTempFile(mapDirectory, "dictionary-", ".arena");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            // The mapping outlives the file on POSIX systems; elsewhere it goes when the JVM exits
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private static int hash(byte[] key) {
+        int h = 1;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        // Spread the bits, the top ones pick the segment and the bottom ones the slot
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private static long tag(int hash) {
+        return ((hash >>> 10) & 0x7FFF) | 0x8000;
+    }
+
+    private static long packSlot(int hash, int chunk, int offset) {
+        return tag(hash) << 48 | (long) chunk << 32 | (offset & 0xFFFFFFFFL);
+    }
+
+    private static boolean isLive(long slot) {
+        return slot != EMPTY && slot != DELETED;
+    }
+
+    private static byte[] encodeDefinitions(List<String> definitions) {
+        List<byte[]> encoded = new ArrayList<>(definitions.size());
+        int size = Integer.BYTES;
+        for (String definition : definitions) {
+            byte[] bytes = definition.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            size += Integer.BYTES + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(encoded.size());
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        return buffer.array();
+    }
+
+    private final class Segment {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        ByteBuffer index;
+        int slots;
+        int used; // live and deleted slots, which both lengthen probes
+        volatile int count;
+        int writeOffset;
+        long liveBytes;
+        long totalBytes;
+
+        Segment() throws IOException {
+            slots = INITIAL_SLOTS;
+            index = allocate(slots * Long.BYTES);
+        }
+
+        long slotAt(int i) {
+            return index.getLong(i * Long.BYTES);
+        }
+
+        void setSlot(int i, long slot) {
+            index.putLong(i * Long.BYTES, slot);
+        }
+
+        /**
+         * @return The index of the slot holding the key, or -1.
+         */
+        int find(byte[] key, int hash) {
+            int mask = slots - 1;
+            long tag = tag(hash);
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                long slot = slotAt(i);
+                if (slot == EMPTY) {
+                    return -1;
+                }
+                if (slot != DELETED && slot >>> 48 == tag && keyEquals(slot, key)) {
+                    return i;
+                }
+            }
+        }
+
+        void insert(long slot, int hash) throws IOException {
+            if (used + 1 > slots / 4 * 3) {
+                rehash();
+            }
+            int mask = slots - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                long existing = slotAt(i);
+                if (!isLive(existing)) {
+                    if (existing == EMPTY) {
+                        used++;
+                    }
+                    setSlot(i, slot);
+                    count++;
+                    return;
+                }
+            }
+        }
+
+        void delete(int i) {
+            setSlot(i, DELETED);
+            count--;
+        }
+
+        // Grow when live slots fill the table, otherwise just clear out the deleted ones
+        private void rehash() throws IOException {
+            int newSlots = slots;
+            while (count + 1 > newSlots / 8 * 3) {
+                if (newSlots == MAX_SLOTS) {
+                    throw new IllegalStateException("Dictionary segment index is full");
+                }
+                newSlots <<= 1;
+            }
+            ByteBuffer newIndex = allocate(newSlots * Long.BYTES);
+            int mask = newSlots - 1;
+            for (int i = 0; i < slots; i++) {
+                long slot = slotAt(i);
+                if (isLive(slot)) {
+                    int j = hash(readKey(slot)) & mask;
+                    while (newIndex.getLong(j * Long.BYTES) != EMPTY) {
+                        j = (j + 1) & mask;
+                    }
+                    newIndex.putLong(j * Long.BYTES, slot);
+                }
+            }
+            index = newIndex;
+            slots = newSlots;
+            used = count;
+        }
+
+        boolean keyEquals(long slot, byte[] key) {
+            ByteBuffer chunk = chunks.get(chunkOf(slot));
+            int offset = (int) slot;
+            return chunk.getInt(offset) == key.length
+                    && chunk.slice(offset + RECORD_HEADER, key.length).equals(ByteBuffer.wrap(key));
+        }
+
+        byte[] readKey(long slot) {
+            ByteBuffer chunk = chunks.get(chunkOf(slot));
+            int offset = (int) slot;
+            byte[] key = new byte[chunk.getInt(offset)];
+            chunk.get(offset + RECORD_HEADER, key);
+            return key;
+        }
+
+        List<String> readDefinitions(long slot) {
+            ByteBuffer chunk = chunks.get(chunkOf(slot));
+            int position = (int) slot + RECORD_HEADER + chunk.getInt((int) slot);
+            int size = chunk.getInt(position);
+            position += Integer.BYTES;
+            List<String> definitions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte[] bytes = new byte[chunk.getInt(position)];
+                chunk.get(position + Integer.BYTES, bytes);
+                position += Integer.BYTES + bytes.length;
+                definitions.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return Collections.unmodifiableList(definitions);
+        }
+
+        int recordSize(long slot) {
+            ByteBuffer chunk = chunks.get(chunkOf(slot));
+            int offset = (int) slot;
+            return RECORD_HEADER + chunk.getInt(offset) + chunk.getInt(offset + Integer.BYTES);
+        }
+
+        void release(long slot) {
+            liveBytes -= recordSize(slot);
+        }
+
+        long write(byte[] key, byte[] value, int hash) throws IOException {
+            int size = RECORD_HEADER + key.length + value.length;
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || chunk.capacity() - writeOffset < size) {
+                if (chunks.size() == MAX_CHUNKS) {
+                    throw new IllegalStateException("Dictionary segment arena is full");
+                }
+                int next = chunk == null ? MIN_CHUNK_SIZE : Math.min(MAX_CHUNK_SIZE, chunk.capacity() * 2);
+                chunk = allocate(Math.max(size, next));
+                chunks.add(chunk);
+                writeOffset = 0;
+            }
+            int offset = writeOffset;
+            chunk.putInt(offset, key.length);
+            chunk.putInt(offset + Integer.BYTES, value.length);
+            chunk.put(offset + RECORD_HEADER, key);
+            chunk.put(offset + RECORD_HEADER + key.length, value);
+            writeOffset += size;
+            liveBytes += size;
+            totalBytes += size;
+            return packSlot(hash, chunks.size() - 1, offset);
+        }
+
+        // Copy the live records into fresh chunks; the index keeps its layout, only the addresses change
+        void compactIfWasteful() throws IOException {
+            long garbage = totalBytes - liveBytes;
+            if (garbage <= liveBytes || garbage <= MIN_CHUNK_SIZE) {
+                return;
+            }
+            List<ByteBuffer> old = new ArrayList<>(chunks);
+            chunks.clear();
+            liveBytes = 0;
+            totalBytes = 0;
+            for (int i = 0; i < slots; i++) {
+                long slot = slotAt(i);
+                if (isLive(slot)) {
+                    ByteBuffer chunk = old.get(chunkOf(slot));
+                    int offset = (int) slot;
+                    byte[] key = new byte[chunk.getInt(offset)];
+                    byte[] value = new byte[chunk.getInt(offset + Integer.BYTES)];
+                    chunk.get(offset + RECORD_HEADER, key);
+                    chunk.get(offset + RECORD_HEADER + key.length, value);
+                    long moved = write(key, value, 0);
+                    setSlot(i, (slot & 0xFFFF000000000000L) | (moved & 0x0000FFFFFFFFFFFFL));
+                }
+            }
+        }
+
+        private int chunkOf(long slot) {
+            return (int) (slot >>> 32) & 0xFFFF;
+        }
+    }
+}
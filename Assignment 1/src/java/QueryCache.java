@@ -0,0 +1,286 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * QueryCache.java
+ * Bounded cache of rendered query responses with a W-TinyLFU admission policy.
+ * New entries land in a small LRU window; entries leaving the window compete with the coldest entry of the main
+ * segmented LRU (probation + protected), and whichever a count-min sketch has seen less often is evicted. This
+ * keeps one-off lookups from flushing the hot words out of the cache.
+ * Hits are lock-free: they bump the sketch and only reorder the LRU lists if the policy lock is free, so under
+ * contention some reorderings are dropped rather than making readers wait.
+ * Every key has an invalidation stamp (striped), and a value computed before an invalidation is never stored.
+ */
+public class QueryCache {
+    private static final int STAMP_STRIPES = 1024;
+
+    private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<>();
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessOrder window = new AccessOrder();
+    private final AccessOrder probation = new AccessOrder();
+    private final AccessOrder protectedRegion = new AccessOrder();
+    private final int maximumSize;
+    private final int windowSize;
+    private final int protectedSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public QueryCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+        this.windowSize = Math.max(1, maximumSize / 100);
+        this.protectedSize = (maximumSize - windowSize) * 4 / 5;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * @return The cached value, or null on a miss.
+     */
+    public String get(String key) {
+        sketch.increment(spread(key.hashCode()));
+        Node node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (policyLock.tryLock()) {
+            try {
+                onAccess(node);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Read before computing a value to put(), so an invalidation in between can be detected.
+     */
+    public long stamp(String key) {
+        return stamps.get(stripe(key));
+    }
+
+    /**
+     * Store a value, unless the key was invalidated after the stamp was taken.
+     */
+    public void put(String key, String value, long stamp) {
+        policyLock.lock();
+        try {
+            if (stamps.get(stripe(key)) != stamp) {
+                return;
+            }
+            Node node = data.get(key);
+            if (node != null) {
+                node.value = value;
+                onAccess(node);
+                return;
+            }
+            node = new Node(key, value);
+            data.put(key, node);
+            window.addLast(node);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Drop the cached value of a key. Call after the underlying data has changed.
+     */
+    public void invalidate(String key) {
+        policyLock.lock();
+        try {
+            stamps.incrementAndGet(stripe(key));
+            Node node = data.remove(key);
+            if (node != null) {
+                node.list.remove(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private void onAccess(Node node) {
+        AccessOrder list = node.list;
+        if (list == null) {
+            return; // invalidated since it was read
+        }
+        if (list == probation) {
+            probation.remove(node);
+            protectedRegion.addLast(node);
+            if (protectedRegion.size > protectedSize) {
+                Node demoted = protectedRegion.first;
+                protectedRegion.remove(demoted);
+                probation.addLast(demoted);
+            }
+        } else {
+            list.moveToLast(node);
+        }
+    }
+
+    private void evict() {
+        while (window.size > windowSize) {
+            Node candidate = window.first;
+            window.remove(candidate);
+            probation.addLast(candidate);
+            if (data.size() > maximumSize) {
+                Node victim = probation.first;
+                if (victim != candidate && sketch.frequency(spread(candidate.key.hashCode()))
+                        > sketch.frequency(spread(victim.key.hashCode()))) {
+                    discard(victim);
+                } else {
+                    discard(candidate);
+                }
+            }
+        }
+        while (data.size() > maximumSize) {
+            discard(probation.first != null ? probation.first : protectedRegion.first);
+        }
+    }
+
+    private void discard(Node node) {
+        node.list.remove(node);
+        data.remove(node.key, node);
+    }
+
+    private static int stripe(String key) {
+        return spread(key.hashCode()) & (STAMP_STRIPES - 1);
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Node {
+        final String key;
+        volatile String value;
+        AccessOrder list;
+        Node previous;
+        Node next;
+
+        Node(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Intrusive doubly-linked list in least to most recently used order, guarded by the policy lock
+    private static final class AccessOrder {
+        Node first;
+        Node last;
+        int size;
+
+        void addLast(Node node) {
+            node.list = this;
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            node.list = null;
+            size--;
+        }
+
+        void moveToLast(Node node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit saturating counters (one per byte for simplicity), halved every sampleSize
+     * increments so that old popularity fades. Updates are unsynchronised; a lost increment only makes the
+     * estimate slightly lower.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb4b82e15, 0x8d6ba9e5, 0x3c6ef372};
+        private static final int MAX_COUNT = 15;
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(16, maximumSize * 4 - 1)) << 1;
+            this.table = new byte[width];
+            this.mask = width - 1;
+            this.sampleSize = Math.max(160, maximumSize * 10);
+        }
+
+        void increment(int hash) {
+            for (int seed : SEEDS) {
+                int index = index(hash, seed);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int seed : SEEDS) {
+                frequency = Math.min(frequency, table[index(hash, seed)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            additions = 0;
+            for (int i = 0; i < table.length; i++) {
+                table[i] >>= 1;
+            }
+        }
+
+        private int index(int hash, int seed) {
+            int h = (hash + seed) * seed;
+            h ^= h >>> 17;
+            return h & mask;
+        }
+    }
+}
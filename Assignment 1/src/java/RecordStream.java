@@ -0,0 +1,131 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.BiConsumer;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * RecordStream.java
+ * Framing of the bulk "import" and "export" streams, which move whole words without a request or a response each.
+ * A stream is a run of frames on the connection ended by an empty frame. With the JSON codec every frame is one line
+ * of the line-delimited dictionary format, {"word": [definitions]} as DictionaryLoader reads it, so an .ndjson
+ * dictionary file can be sent as it is. With the binary codec every frame is a chunk of checksummed write-ahead log
+ * records (see WriteAheadLog.encodeRecord), where a removal record deletes its word.
+ * Import: the client sends an "import" request followed by the stream. The server applies the words as they arrive
+ * without logging each one, saves a snapshot when the stream ends, and only then answers with the count.
+ * Export: the client sends an "export" request without a resume point. The server answers "Exporting up to N words",
+ * then streams the words of a snapshot taken when the request arrived, pausing while the client falls behind.
+ * Instances build the outgoing frames: words are added until the chunk is full, then taken out framed as one block.
+ */
+public class RecordStream {
+    public static final String EXPORT_STARTED = "Exporting ";
+    private static final int CHUNK_SIZE = 64 * 1024; // bytes of records to gather before a chunk is sent
+
+    private final boolean binary;
+    private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+
+    public RecordStream(Codec codec) {
+        binary = codec.isLengthPrefixed();
+    }
+
+    /**
+     * Add a word to the chunk being built.
+     *
+     * @param definitions The word's definitions, or null to remove it (binary streams only).
+     */
+    public void add(String word, List<String> definitions) {
+        if (binary) {
+            chunk.writeBytes(WriteAheadLog.encodeRecord(word, definitions));
+            return;
+        }
+        try {
+            Writer writer = new OutputStreamWriter(chunk, StandardCharsets.UTF_8);
+            JsonWriter line = new JsonWriter(writer);
+            line.beginObject();
+            line.name(word);
+            line.beginArray();
+            for (String definition : definitions) {
+                line.value(definition);
+            }
+            line.endArray();
+            line.endObject();
+            line.flush();
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen on a byte array
+        }
+    }
+
+    /**
+     * @return True once the chunk is big enough to send.
+     */
+    public boolean isFull() {
+        return chunk.size() >= CHUNK_SIZE;
+    }
+
+    public boolean isEmpty() {
+        return chunk.size() == 0;
+    }
+
+    /**
+     * Take out the words added so far as framed bytes, ready to write, and start a new chunk.
+     */
+    public byte[] take() {
+        byte[] records = chunk.toByteArray();
+        chunk.reset();
+        if (!binary) {
+            return records; // each line is already its own frame
+        }
+        return ByteBuffer.allocate(Integer.BYTES + records.length).putInt(records.length).put(records).array();
+    }
+
+    /**
+     * @return The framed empty frame that ends a stream.
+     */
+    public static byte[] end(Codec codec) {
+        return codec.isLengthPrefixed() ? new byte[Integer.BYTES] : new byte[]{'\n'};
+    }
+
+    /**
+     * Decode the content of one frame of a stream.
+     *
+     * @param sink Receives every word with its definitions, or null definitions for a removal.
+     * @throws IOException If the frame is malformed; the words before the fault have been passed on.
+     */
+    public static void read(Codec codec, byte[] frame, BiConsumer<String, List<String>> sink) throws IOException {
+        if (codec.isLengthPrefixed()) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            while (in.available() > 0) {
+                if (!WriteAheadLog.readRecord(in, sink)) {
+                    throw new IOException("Corrupt record in chunk");
+                }
+            }
+            return;
+        }
+        String line = new String(frame, StandardCharsets.UTF_8);
+        if (line.isBlank()) {
+            return;
+        }
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            DictionaryLoader.readEntries(reader, sink);
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed record: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Produces the words of an import, e.g. by reading a file with DictionaryLoader.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @param sink Receives every word with its definitions; it is thread-safe.
+         */
+        void forEach(BiConsumer<String, List<String>> sink) throws IOException;
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * ReplicationFollower.java
+ * Follower side of replication: keeps the local dictionary in step with a ReplicationLeader.
+ * A background thread connects to the leader, applies the snapshot and records it streams, and reconnects after
+ * Constant.REPLICATION_RETRY milliseconds whenever the connection fails or the leader goes quiet for three
+ * heartbeats. Within one leader epoch a reconnect resumes from the last applied record.
+ * While following, the server is read-only: clients must send their writes to the leader.
+ */
+public class ReplicationFollower {
+    private final String host;
+    private final int port;
+    private final DictionaryServer server;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private long epoch;
+    private volatile long applied;
+    private volatile long leaderSequence;
+
+    public ReplicationFollower(String host, int port, DictionaryServer server) {
+        this.host = host;
+        this.port = port;
+        this.server = server;
+    }
+
+    /**
+     * Start following on a background thread.
+     */
+    public void start() {
+        Thread follower = new Thread(this::follow, "replication-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    public void stop() {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * @return The number of records the leader has logged that are not applied here yet, as of the last message.
+     */
+    public long getLag() {
+        return Math.max(0, leaderSequence - applied);
+    }
+
+    private void follow() {
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(host, port), Constant.REPLICATION_RETRY);
+                connection.setSoTimeout(3 * Constant.REPLICATION_HEARTBEAT);
+                connection.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                out.writeLong(epoch);
+                out.writeLong(applied);
+                out.flush();
+                server.log("Following leader " + host + ":" + port);
+                receive(in);
+            } catch (IOException e) {
+                if (running) {
+                    String reason = e instanceof EOFException ? "connection closed" : e.getMessage();
+                    server.log(AsyncLogger.Level.WARN, "Lost leader " + host + ":" + port + ": " + reason);
+                }
+            }
+            try {
+                Thread.sleep(Constant.REPLICATION_RETRY);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        Set<String> snapshotWords = null;
+        long snapshotEpoch = 0;
+        long snapshotSequence = 0;
+        while (running) {
+            byte type = in.readByte();
+            switch (type) {
+                case ReplicationLeader.RESUME:
+                    if (in.readLong() != epoch) {
+                        throw new IOException("Leader resumed a different epoch");
+                    }
+                    break;
+                case ReplicationLeader.SNAPSHOT_BEGIN:
+                    snapshotEpoch = in.readLong(); // adopted only once the snapshot is complete
+                    snapshotSequence = in.readLong();
+                    leaderSequence = snapshotSequence;
+                    snapshotWords = new HashSet<>();
+                    break;
+                case ReplicationLeader.SNAPSHOT_RECORD:
+                    if (snapshotWords == null) {
+                        throw new IOException("Snapshot record outside a snapshot");
+                    }
+                    Set<String> seen = snapshotWords;
+                    readRecord(in, (word, definitions) -> {
+                        seen.add(word);
+                        Dictionary.applyReplicated(word, definitions);
+                    });
+                    break;
+                case ReplicationLeader.SNAPSHOT_END:
+                    if (snapshotWords == null) {
+                        throw new IOException("Snapshot end outside a snapshot");
+                    }
+                    removeWordsNotIn(snapshotWords);
+                    snapshotWords = null;
+                    epoch = snapshotEpoch;
+                    applied = snapshotSequence;
+                    server.log("Snapshot from leader applied at record " + applied);
+                    break;
+                case ReplicationLeader.RECORD:
+                    if (snapshotWords != null) {
+                        throw new IOException("Record inside a snapshot");
+                    }
+                    long sequence = in.readLong();
+                    if (sequence != applied + 1) {
+                        throw new IOException("Expected record " + (applied + 1) + " but got " + sequence);
+                    }
+                    readRecord(in, Dictionary::applyReplicated);
+                    applied = sequence;
+                    leaderSequence = Math.max(leaderSequence, sequence);
+                    break;
+                case ReplicationLeader.HEARTBEAT:
+                    leaderSequence = in.readLong();
+                    break;
+                default:
+                    throw new IOException("Unknown replication message " + type);
+            }
+        }
+    }
+
+    private static void readRecord(DataInputStream in, BiConsumer<String, List<String>> apply) throws IOException {
+        if (!WriteAheadLog.readRecord(in, apply)) {
+            throw new IOException("Corrupt replication record");
+        }
+    }
+
+    // Words the leader no longer has were deleted while this follower was away
+    private static void removeWordsNotIn(Set<String> words) {
+        List<String> stale = new ArrayList<>();
+        Dictionary.forEach((word, definitions) -> {
+            if (!words.contains(word)) {
+                stale.add(word);
+            }
+        });
+        for (String word : stale) {
+            Dictionary.applyReplicated(word, null);
+        }
+    }
+}
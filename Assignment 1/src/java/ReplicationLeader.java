@@ -0,0 +1,182 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * ReplicationLeader.java
+ * Leader side of replication: numbers every mutation and streams the records to followers over TCP.
+ * The Dictionary hands over each write-ahead log record as the word changes, so the sequence numbers follow the
+ * order in which the words changed. The most recent Constant.REPLICATION_BACKLOG records are kept in memory.
+ * A follower opens a connection and sends the epoch and sequence number it has applied up to. If the records after
+ * that are still in the backlog, streaming resumes from there; otherwise (a new follower, a restarted leader with a
+ * new epoch, or a follower that fell too far behind) the leader sends a snapshot first: every word as it is while
+ * the walk goes on, then the records logged since the walk started. Records hold a word's full state, so replaying
+ * them over a snapshot that already saw some of the changes ends in the same state as the leader.
+ * Replication is asynchronous: a write is acknowledged once it is durable on the leader, and followers catch up
+ * shortly after. An idle stream carries a heartbeat every Constant.REPLICATION_HEARTBEAT milliseconds.
+ */
+public class ReplicationLeader {
+    static final byte RECORD = 1;
+    static final byte SNAPSHOT_BEGIN = 2;
+    static final byte SNAPSHOT_RECORD = 3;
+    static final byte SNAPSHOT_END = 4;
+    static final byte RESUME = 5;
+    static final byte HEARTBEAT = 6;
+
+    private static final int RECORDS_PER_WRITE = 1024;
+
+    private final int port;
+    private final DictionaryServer server;
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final byte[][] backlog = new byte[Constant.REPLICATION_BACKLOG][];
+    private long sequence; // of the last record appended; guarded by backlog
+    private final AtomicInteger followers = new AtomicInteger();
+    private ServerSocket serverSocket;
+
+    public ReplicationLeader(int port, DictionaryServer server) {
+        this.port = port;
+        this.server = server;
+    }
+
+    /**
+     * Start accepting followers on a background thread.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(this::acceptFollowers, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        server.log("Replication leader listening on port " + port);
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            server.log(AsyncLogger.Level.WARN, "Error closing replication socket: " + e.getMessage());
+        }
+    }
+
+    public int getFollowerCount() {
+        return followers.get();
+    }
+
+    /**
+     * Add a record made by WriteAheadLog.encodeRecord(). Called while the word is locked.
+     */
+    public void append(byte[] record) {
+        synchronized (backlog) {
+            sequence++;
+            backlog[(int) (sequence % backlog.length)] = record;
+            backlog.notifyAll();
+        }
+    }
+
+    private void acceptFollowers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread sender = new Thread(() -> serve(socket), "replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    server.log(AsyncLogger.Level.WARN, "Error accepting follower: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        String follower = socket.getRemoteSocketAddress().toString();
+        followers.incrementAndGet();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            long followerEpoch = in.readLong();
+            long applied = in.readLong();
+            long next;
+            boolean resume;
+            synchronized (backlog) {
+                resume = followerEpoch == epoch && applied <= sequence && applied >= sequence - backlog.length;
+                next = resume ? applied + 1 : sequence + 1;
+            }
+            if (resume) {
+                server.log("Follower " + follower + " resuming after record " + applied);
+                out.writeByte(RESUME);
+                out.writeLong(epoch);
+            } else {
+                server.log("Follower " + follower + " connected, sending a snapshot");
+                sendSnapshot(out, next - 1);
+            }
+            out.flush();
+            streamRecords(out, next);
+        } catch (IOException e) {
+            server.log(AsyncLogger.Level.WARN, "Follower " + follower + " disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.decrementAndGet();
+        }
+    }
+
+    private void sendSnapshot(DataOutputStream out, long startSequence) throws IOException {
+        out.writeByte(SNAPSHOT_BEGIN);
+        out.writeLong(epoch);
+        out.writeLong(startSequence);
+        try {
+            Dictionary.forEach((word, definitions) -> {
+                try {
+                    out.writeByte(SNAPSHOT_RECORD);
+                    out.write(WriteAheadLog.encodeRecord(word, definitions));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(SNAPSHOT_END);
+    }
+
+    private void streamRecords(DataOutputStream out, long next) throws IOException, InterruptedException {
+        List<byte[]> records = new ArrayList<>(RECORDS_PER_WRITE);
+        while (!serverSocket.isClosed()) {
+            long latest;
+            synchronized (backlog) {
+                if (sequence < next) {
+                    backlog.wait(Constant.REPLICATION_HEARTBEAT);
+                }
+                if (next <= sequence - backlog.length) {
+                    throw new IOException("Follower fell behind the replication backlog");
+                }
+                for (long s = next; s <= sequence && records.size() < RECORDS_PER_WRITE; s++) {
+                    records.add(backlog[(int) (s % backlog.length)]);
+                }
+                latest = sequence;
+            }
+            if (records.isEmpty()) {
+                out.writeByte(HEARTBEAT);
+                out.writeLong(latest);
+            }
+            for (byte[] record : records) {
+                out.writeByte(RECORD);
+                out.writeLong(next++);
+                out.write(record);
+            }
+            records.clear();
+            out.flush();
+        }
+        throw new SocketException("Replication stopped");
+    }
+}
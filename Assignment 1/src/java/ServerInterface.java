@@ -9,17 +9,29 @@ import java.io.IOException;
  * 1466195
  * ServerInterface.java
  * GUI interface for the dictionary server.
- * Displays server logs, connected clients, and processed requests.
+ * Displays server logs, connected clients, processed and rejected requests, the worker pool's size, queue and
+ * queue wait, the query cache hit ratio and, when definitions are compressed, the compression ratio and decode time.
+ * The statistics are sampled once a second, and log lines arrive in batches, so a busy server causes no more
+ * repainting than an idle one. Only the most recent MAX_LOG_CHARS characters of the log are kept.
  */
 public class ServerInterface extends JFrame {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_LOG_CHARS = 200_000;
+    private static final int REFRESH_INTERVAL = 1000; // milliseconds between statistics updates
+
     private JTextArea logArea;
     private JLabel clientCountLabel;
     private JLabel requestCountLabel;
+    private JLabel poolLabel;
+    private JLabel cacheHitLabel;
+    private JLabel compressionLabel;
     private JScrollPane scrollPane;
     private String fileName;
     private Dictionary dictionary;
+    private DictionaryServer server;
 
-    public ServerInterface(Dictionary dictionary) throws IOException {
+    public ServerInterface(DictionaryServer server, Dictionary dictionary) throws IOException {
+        this.server = server;
         this.dictionary = dictionary;
         initComponents();
         addWindowListener(new WindowAdapter() {
@@ -49,26 +61,42 @@ public class ServerInterface extends JFrame {
         clientCountLabel = new JLabel("Connected Clients: 0");
         requestCountLabel = new JLabel("Processed Requests: 0");
         statsPanel.add(clientCountLabel);
+        cacheHitLabel = new JLabel("Cache Hit Ratio: 0.0%");
         statsPanel.add(requestCountLabel);
+        poolLabel = new JLabel();
+        statsPanel.add(poolLabel);
+        statsPanel.add(cacheHitLabel);
+        compressionLabel = new JLabel();
+        statsPanel.add(compressionLabel);
+        // The numbers change on every request, so sample them rather than pushing an update per request
+        new Timer(REFRESH_INTERVAL, e -> refreshStatistics()).start();
         add(statsPanel, BorderLayout.SOUTH);
     }
 
-    public void appendLog(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append(message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
-    }
-
-    public void updateClientCount(int count) {
-        SwingUtilities.invokeLater(() -> {
-            clientCountLabel.setText("Connected Clients: " + count);
-        });
+    private void refreshStatistics() {
+        clientCountLabel.setText("Connected Clients: " + server.getConnectedClients());
+        requestCountLabel.setText("Processed Requests: " + server.getProcessedRequests()
+                + ", Rejected: " + server.getRejectedRequests());
+        ThreadPool pool = server.getThreadPool();
+        poolLabel.setText(String.format("Workers: %d, Queued: %d (%.1f ms wait)", pool.getPoolSize(),
+                pool.getQueueDepth(), pool.getAverageQueueWaitMillis()));
+        cacheHitLabel.setText(String.format("Cache Hit Ratio: %.1f%%", Dictionary.getQueryCacheHitRatio() * 100));
+        double ratio = Dictionary.getCompressionRatio();
+        compressionLabel.setText(ratio == 0 ? "" : String.format("Compression: %.1fx, %.0f ns per decode",
+                ratio, Dictionary.getAverageDecodeNanos()));
     }
 
-    public void updateRequestCount(int count) {
+    /**
+     * Append a block of log lines, each ending with a newline.
+     */
+    public void appendLog(String lines) {
         SwingUtilities.invokeLater(() -> {
-            requestCountLabel.setText("Processed Requests: " + count);
+            logArea.append(lines);
+            int length = logArea.getDocument().getLength();
+            if (length > MAX_LOG_CHARS) {
+                logArea.replaceRange("", 0, length - MAX_LOG_CHARS);
+            }
+            logArea.setCaretPosition(logArea.getDocument().getLength());
         });
     }
-}
\ No newline at end of file
+}
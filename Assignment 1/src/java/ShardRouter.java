@@ -0,0 +1,448 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * ShardRouter.java
+ * Client-side router for a dictionary partitioned across several servers.
+ * Words are hashed (after the same lower casing as Dictionary.query) onto a consistent-hash ring on which every
+ * node owns Constant.VIRTUAL_NODES points; a word belongs to the first node point at or after its hash. Requests
+ * for one word go to its node, prefix/suggest/search go to every node and the answers are merged, and a batch is
+ * split into one sub-batch per node, sent in parallel and put back together in the original order.
+ * Each node has a small pool of pipelining connections; a broken connection is replaced on next use.
+ * addNode() and removeNode() reshard by moving only the hash ranges whose owner changes: the words are copied
+ * with the "export" action page by page, the ring is switched, and the copies left on the old owner are deleted.
+ * A write the new owner does not apply stops the reshard with an IOException before the ring is switched.
+ * Writes to the moving ranges should be paused while this runs, and every client must use the same node list.
+ * Run as a program to reshard: java ShardRouter add|remove host:port, with -Ddictionary.shards set to the
+ * current node list.
+ */
+public class ShardRouter implements Closeable {
+    private volatile TreeMap<Long, String> ring;
+    private final ConcurrentHashMap<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * @param nodes Addresses of the nodes, as host:port.
+     */
+    public ShardRouter(Collection<String> nodes) {
+        ring = buildRing(new LinkedHashSet<>(nodes));
+    }
+
+    public static void main(String[] args) throws IOException {
+        //args[0] = add or remove, args[1] = host:port
+        List<String> nodes = Arrays.asList(System.getProperty("dictionary.shards").split(","));
+        try (ShardRouter router = new ShardRouter(nodes)) {
+            int moved = args[0].equals("add") ? router.addNode(args[1]) : router.removeNode(args[1]);
+            System.out.println("Moved " + moved + " words; nodes are now " + String.join(",", router.getNodes()));
+        }
+    }
+
+    /**
+     * Stable 64-bit hash of a word, the same in every client and server.
+     */
+    public static long hash(String word) {
+        long hash = 0xcbf29ce484222325L; // FNV-1a, then a murmur3 finaliser to spread similar words apart
+        for (byte b : word.toLowerCase().getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Parse the hash ranges of an "export" request, "lo:hi,lo:hi,..." with both ends inclusive.
+     *
+     * @return A test for words whose hash falls in one of the ranges.
+     * @throws IllegalArgumentException If the ranges are malformed.
+     */
+    public static Predicate<String> rangeFilter(String ranges) {
+        TreeMap<Long, Long> bounds = new TreeMap<>();
+        for (String range : ranges.split(",")) {
+            int colon = range.indexOf(':', 1); // a leading '-' is a sign, not a separator
+            if (colon == -1) {
+                throw new IllegalArgumentException("Bad hash range " + range);
+            }
+            bounds.put(Long.parseLong(range.substring(0, colon)), Long.parseLong(range.substring(colon + 1)));
+        }
+        return word -> {
+            long hash = hash(word);
+            Map.Entry<Long, Long> range = bounds.floorEntry(hash);
+            return range != null && hash <= range.getValue();
+        };
+    }
+
+    public List<String> getNodes() {
+        return new ArrayList<>(new TreeSet<>(ring.values()));
+    }
+
+    /**
+     * @return The node that owns the word.
+     */
+    public String nodeFor(String word) {
+        return owner(ring, hash(word));
+    }
+
+    /**
+     * Send a request to the node(s) it concerns and wait for the reply.
+     */
+    public DictionaryResponse call(DictionaryRequest request) throws IOException {
+        return await(send(request));
+    }
+
+    /**
+     * Send a request to the node(s) it concerns without waiting.
+     */
+    public CompletableFuture<DictionaryResponse> send(DictionaryRequest request) {
+        switch (request.getAction()) {
+            case "batch":
+                return sendBatch(request.getRequests());
+            case "prefix":
+            case "suggest":
+            case "search":
+                return sendToAll(request);
+            default:
+                return pool(nodeFor(request.getWord())).send(request);
+        }
+    }
+
+    private CompletableFuture<DictionaryResponse> sendBatch(List<DictionaryRequest> requests) {
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            DictionaryRequest request = requests.get(i);
+            String node = request.getWord() != null ? nodeFor(request.getWord()) : ring.firstEntry().getValue();
+            positions.computeIfAbsent(node, key -> new ArrayList<>()).add(i);
+        }
+        DictionaryResponse[] results = new DictionaryResponse[requests.size()];
+        List<CompletableFuture<?>> parts = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> shard : positions.entrySet()) {
+            List<DictionaryRequest> subRequests = new ArrayList<>();
+            for (int position : shard.getValue()) {
+                subRequests.add(requests.get(position));
+            }
+            parts.add(pool(shard.getKey()).send(new DictionaryRequest(subRequests)).thenAccept(response -> {
+                List<DictionaryResponse> subResults = response.getResults();
+                for (int i = 0; i < subResults.size(); i++) {
+                    results[shard.getValue().get(i)] = subResults.get(i);
+                }
+            }));
+        }
+        String message = "Batch of " + results.length + " requests processed";
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done ->
+                new DictionaryResponse(0, message, Arrays.asList(results)));
+    }
+
+    private CompletableFuture<DictionaryResponse> sendToAll(DictionaryRequest request) {
+        List<String> nodes = getNodes();
+        List<CompletableFuture<DictionaryResponse>> parts = new ArrayList<>();
+        for (String node : nodes) {
+            parts.add(pool(node).send(new DictionaryRequest(request.getAction(), request.getWord(), null, null)));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<List<String>> answers = new ArrayList<>();
+            for (CompletableFuture<DictionaryResponse> part : parts) {
+                String message = part.join().getMessage();
+                answers.add(message.equals("No matches found") ? List.of() : Arrays.asList(message.split("\n")));
+            }
+            List<String> merged = merge(request.getAction(), request.getWord(), answers);
+            return new DictionaryResponse(0, merged.isEmpty() ? "No matches found" : String.join("\n", merged));
+        });
+    }
+
+    // Each node ranks only its own words, so the lists are merged on what the client can compare
+    private static List<String> merge(String action, String query, List<List<String>> answers) {
+        List<String> words = new ArrayList<>();
+        switch (action) {
+            case "prefix": // alphabetical
+                answers.forEach(words::addAll);
+                Collections.sort(words);
+                return limit(words, Constant.SUGGESTION_LIMIT);
+            case "suggest": // closest first
+                answers.forEach(words::addAll);
+                String target = query.toLowerCase();
+                words.sort(Comparator.comparingInt((String word) -> editDistance(target, word))
+                        .thenComparing(Comparator.naturalOrder()));
+                return limit(words, Constant.SUGGESTION_LIMIT);
+            default: // search scores are relative to each node's own statistics, so interleave by rank
+                for (int rank = 0; words.size() < Constant.SEARCH_LIMIT; rank++) {
+                    boolean more = false;
+                    for (List<String> answer : answers) {
+                        if (rank < answer.size() && words.size() < Constant.SEARCH_LIMIT) {
+                            words.add(answer.get(rank));
+                            more = true;
+                        }
+                    }
+                    if (!more) {
+                        break;
+                    }
+                }
+                return words;
+        }
+    }
+
+    private static List<String> limit(List<String> words, int limit) {
+        return words.size() > limit ? new ArrayList<>(words.subList(0, limit)) : words;
+    }
+
+    private static int editDistance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Add a node and move the words it now owns onto it.
+     *
+     * @return The number of words moved.
+     */
+    public synchronized int addNode(String node) throws IOException {
+        Set<String> nodes = new LinkedHashSet<>(ring.values());
+        nodes.add(node);
+        return reshard(buildRing(nodes));
+    }
+
+    /**
+     * Move the words of a node to the nodes that own them without it, then drop the node.
+     *
+     * @return The number of words moved.
+     */
+    public synchronized int removeNode(String node) throws IOException {
+        Set<String> nodes = new LinkedHashSet<>(ring.values());
+        nodes.remove(node);
+        if (nodes.isEmpty()) {
+            throw new IOException("Cannot remove the last node");
+        }
+        int moved = reshard(buildRing(nodes));
+        ConnectionPool pool = pools.remove(node);
+        if (pool != null) {
+            pool.close();
+        }
+        return moved;
+    }
+
+    private int reshard(TreeMap<Long, String> newRing) throws IOException {
+        TreeMap<Long, String> oldRing = ring;
+        // Between two consecutive points of either ring the owner is constant, so compare owners per segment
+        TreeSet<Long> points = new TreeSet<>(oldRing.keySet());
+        points.addAll(newRing.keySet());
+        Map<List<String>, StringBuilder> moves = new LinkedHashMap<>();
+        Long previous = points.last();
+        for (Long point : points) {
+            String from = owner(oldRing, point);
+            String to = owner(newRing, point);
+            if (!from.equals(to)) {
+                StringBuilder ranges = moves.computeIfAbsent(List.of(from, to), key -> new StringBuilder());
+                appendRange(ranges, previous, point);
+            }
+            previous = point;
+        }
+        int moved = 0;
+        for (Map.Entry<List<String>, StringBuilder> move : moves.entrySet()) {
+            moved += copy(move.getKey().get(0), move.getKey().get(1), move.getValue().toString());
+        }
+        ring = newRing;
+        for (Map.Entry<List<String>, StringBuilder> move : moves.entrySet()) {
+            deleteCopied(move.getKey().get(0), move.getValue().toString());
+        }
+        return moved;
+    }
+
+    // The segment (after, upTo], split in two if it wraps around the end of the ring
+    private static void appendRange(StringBuilder ranges, long after, long upTo) {
+        if (ranges.length() > 0) {
+            ranges.append(',');
+        }
+        if (after < upTo) {
+            ranges.append(after + 1).append(':').append(upTo);
+        } else {
+            if (after < Long.MAX_VALUE) {
+                ranges.append(after + 1).append(':').append(Long.MAX_VALUE).append(',');
+            }
+            ranges.append(Long.MIN_VALUE).append(':').append(upTo);
+        }
+    }
+
+    private int copy(String from, String to, String ranges) throws IOException {
+        int copied = 0;
+        String after = "";
+        while (true) {
+            List<DictionaryResponse> entries = export(from, ranges, after);
+            if (entries.isEmpty()) {
+                return copied;
+            }
+            List<DictionaryRequest> writes = new ArrayList<>();
+            for (DictionaryResponse entry : entries) {
+                String word = entry.getMessage();
+                List<DictionaryResponse> definitions = entry.getResults();
+                after = word;
+                if (definitions.isEmpty()) {
+                    continue; // a word without definitions cannot be added, and means nothing anyway
+                }
+                writes.add(new DictionaryRequest("delete", word, null, null)); // left over from an earlier attempt
+                writes.add(new DictionaryRequest("add", word, null, definitions.get(0).getMessage()));
+                for (int i = 1; i < definitions.size(); i++) {
+                    writes.add(new DictionaryRequest("append", word, null, definitions.get(i).getMessage()));
+                }
+            }
+            // Throwing here stops the reshard before the ring is switched, so nothing is deleted from the source
+            checkApplied(to, "Cannot copy", writes, await(pool(to).send(new DictionaryRequest(writes))));
+            copied += entries.size();
+        }
+    }
+
+    // A page the source does not fully delete throws, rather than being exported and sent again
+    private void deleteCopied(String from, String ranges) throws IOException {
+        List<DictionaryResponse> entries;
+        String after = "";
+        while (!(entries = export(from, ranges, after)).isEmpty()) {
+            List<DictionaryRequest> deletes = new ArrayList<>();
+            for (DictionaryResponse entry : entries) {
+                deletes.add(new DictionaryRequest("delete", entry.getMessage(), null, null));
+                after = entry.getMessage();
+            }
+            checkApplied(from, "Moved words left behind", deletes,
+                    await(pool(from).send(new DictionaryRequest(deletes))));
+        }
+    }
+
+    /**
+     * Check that a node applied every request of a batch. An overloaded node answers the batch "Server busy"
+     * without results, and a read-only one refuses each write, so the response has to be read, not just awaited.
+     *
+     * @throws IOException If a result is missing or is not the success message of its request.
+     */
+    private static void checkApplied(String node, String failure, List<DictionaryRequest> requests,
+                                     DictionaryResponse response) throws IOException {
+        List<DictionaryResponse> results = response.getResults();
+        if (results == null || results.size() != requests.size()) {
+            throw new IOException(failure + " on " + node + ": " + response.getMessage());
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            DictionaryRequest request = requests.get(i);
+            String message = results.get(i).getMessage();
+            boolean applied;
+            switch (request.getAction()) {
+                case "add": applied = "Word added successfully".equals(message); break;
+                case "append": applied = "Definition appended successfully".equals(message); break;
+                case "delete": // either way the word is gone
+                    applied = "Word deleted successfully".equals(message) || "Word not found".equals(message);
+                    break;
+                default: applied = false;
+            }
+            if (!applied) {
+                throw new IOException(failure + " on " + node + ": " + request.getWord() + ": " + message);
+            }
+        }
+    }
+
+    private List<DictionaryResponse> export(String node, String ranges, String after) throws IOException {
+        DictionaryResponse response = await(pool(node).send(new DictionaryRequest("export", ranges, null, after)));
+        if (response.getResults() == null) {
+            throw new IOException(node + " cannot export: " + response.getMessage());
+        }
+        return response.getResults();
+    }
+
+    @Override
+    public void close() {
+        for (ConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+    }
+
+    private ConnectionPool pool(String node) {
+        return pools.computeIfAbsent(node, ConnectionPool::new);
+    }
+
+    private static String owner(TreeMap<Long, String> ring, long hash) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash);
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+
+    private static TreeMap<Long, String> buildRing(Set<String> nodes) {
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < Constant.VIRTUAL_NODES; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+        return ring;
+    }
+
+    private static DictionaryResponse await(CompletableFuture<DictionaryResponse> response) throws IOException {
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the server");
+        }
+    }
+
+    /**
+     * A few pipelining connections to one node, used in turn.
+     */
+    private static final class ConnectionPool {
+        private final String host;
+        private final int port;
+        private final DictionaryConnection[] connections = new DictionaryConnection[Constant.CONNECTIONS_PER_NODE];
+        private final AtomicInteger next = new AtomicInteger();
+
+        ConnectionPool(String node) {
+            int colon = node.lastIndexOf(':');
+            this.host = node.substring(0, colon);
+            this.port = Integer.parseInt(node.substring(colon + 1));
+        }
+
+        CompletableFuture<DictionaryResponse> send(DictionaryRequest request) {
+            try {
+                return connection().send(request);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private synchronized DictionaryConnection connection() throws IOException {
+            int index = Math.floorMod(next.getAndIncrement(), connections.length);
+            if (connections[index] == null || !connections[index].isOpen()) {
+                connections[index] = new DictionaryConnection(host, port);
+            }
+            return connections[index];
+        }
+
+        synchronized void close() {
+            for (DictionaryConnection connection : connections) {
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (IOException e) {
+                        // closing anyway
+                    }
+                }
+            }
+        }
+    }
+}
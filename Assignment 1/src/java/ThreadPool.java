@@ -1,30 +1,159 @@
 import java.util.concurrent.*;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Ruoyu Lu
  * 1466195
- * A simple thread pool class that manages a pool of threads.
+ * A thread pool that sizes itself to the load and refuses work it could not start in time.
+ * Every second or so (Constant.POOL_ADAPT_INTERVAL) the pool looks at how long tasks waited in the queue and how
+ * long they ran. The time spent running, divided by the length of the interval, is the number of workers the load
+ * kept busy; the pool resizes to that divided by Constant.TARGET_UTILISATION, growing faster while tasks queue, and
+ * shrinking one thread per interval so a short lull does not throw away the workers a burst needs.
+ * Workers also block on log flushes, which is why the pool may grow past the number of cores.
+ * tryExecute() refuses a task when the queue holds Constant.WORKER_QUEUE_SIZE tasks or the oldest has waited longer
+ * than Constant.MAX_QUEUE_WAIT: a caller that is told at once can answer "Server busy", which beats a reply that
+ * arrives after the client has given up. execute() is for work that must not be shed, and may also use the
+ * Constant.STREAM_QUEUE_RESERVE slots beyond that; the queue holds no more than the two together, so past them
+ * even execute() refuses.
  */
 public class ThreadPool {
-    private final ExecutorService executor;
-    private final List<Thread> managedThreads;
+    private final ThreadPoolExecutor executor;
+    private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(
+            Constant.WORKER_QUEUE_SIZE + Constant.STREAM_QUEUE_RESERVE);
+    private final int minThreads;
+    private final int maxThreads;
+    private final Consumer<String> log;
+    private final ScheduledExecutorService sizer;
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private long lastAdapted = System.nanoTime();
+    // Averages over the last interval, published for the statistics
+    private volatile double averageWaitMillis;
+    private volatile double averageServiceMillis;
 
-    public ThreadPool(int nThreads) {
-        this.executor = Executors.newFixedThreadPool(nThreads);
-        this.managedThreads = new ArrayList<>();
+    /**
+     * @param minThreads The initial and smallest number of workers.
+     * @param maxThreads The largest number of workers.
+     * @param log        Receives a message whenever the pool resizes.
+     */
+    public ThreadPool(int minThreads, int maxThreads, Consumer<String> log) {
+        this.minThreads = minThreads;
+        this.maxThreads = Math.max(minThreads, maxThreads);
+        this.log = log;
+        AtomicInteger workers = new AtomicInteger();
+        executor = new ThreadPoolExecutor(minThreads, minThreads, 60, TimeUnit.SECONDS, queue,
+                runnable -> new Thread(runnable, "dictionary-worker-" + workers.incrementAndGet()));
+        sizer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dictionary-pool-sizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sizer.scheduleWithFixedDelay(this::adapt, Constant.POOL_ADAPT_INTERVAL, Constant.POOL_ADAPT_INTERVAL,
+                TimeUnit.MILLISECONDS);
     }
 
-    public void execute(Runnable task) {
-        executor.execute(task);
+    /**
+     * Queue a task unless the queue is full, including the slots reserved for work that is not shed.
+     *
+     * @return False if the task was refused and will not run.
+     */
+    public boolean execute(Runnable task) {
+        try {
+            executor.execute(new Task(task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
     }
 
-    public void shutdown() {
-        for (Thread thread : managedThreads) {
-            thread.interrupt();
+    /**
+     * Queue a task unless the pool is overloaded.
+     *
+     * @return False if the task was refused and will not run.
+     */
+    public boolean tryExecute(Runnable task) {
+        if (queue.size() >= Constant.WORKER_QUEUE_SIZE || oldestWaitNanos() > Constant.MAX_QUEUE_WAIT * 1_000_000L) {
+            rejected.increment();
+            return false;
+        }
+        return execute(task);
+    }
+
+    private long oldestWaitNanos() {
+        Task oldest = (Task) queue.peek();
+        return oldest == null ? 0 : System.nanoTime() - oldest.queuedAt;
+    }
+
+    // Runs on the sizer thread
+    private void adapt() {
+        long now = System.nanoTime();
+        long interval = now - lastAdapted;
+        lastAdapted = now;
+        long tasks = completed.sumThenReset();
+        long waited = waitNanos.sumThenReset();
+        long busy = busyNanos.sumThenReset();
+        averageWaitMillis = tasks == 0 ? 0 : waited / 1e6 / tasks;
+        averageServiceMillis = tasks == 0 ? 0 : busy / 1e6 / tasks;
+        int size = executor.getCorePoolSize();
+        int wanted = (int) Math.ceil((double) busy / interval / Constant.TARGET_UTILISATION);
+        if (!queue.isEmpty() && averageWaitMillis > averageServiceMillis) {
+            wanted = Math.max(wanted, size + Math.max(1, size / 4)); // falling behind: grow by a quarter at least
+        }
+        if (wanted < size) {
+            wanted = size - 1;
+        }
+        wanted = Math.max(minThreads, Math.min(maxThreads, wanted));
+        if (wanted == size) {
+            return;
+        }
+        // The core size may never exceed the maximum, so the order of the two calls depends on the direction
+        if (wanted > size) {
+            executor.setMaximumPoolSize(wanted);
+            executor.setCorePoolSize(wanted);
+        } else {
+            executor.setCorePoolSize(wanted);
+            executor.setMaximumPoolSize(wanted);
         }
+        log.accept(String.format("Worker pool resized from %d to %d threads (%.2f ms queued, %.2f ms running)",
+                size, wanted, averageWaitMillis, averageServiceMillis));
+    }
+
+    public int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
 
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The mean time tasks waited for a worker over the last interval, in milliseconds.
+     */
+    public double getAverageQueueWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    /**
+     * @return The mean time tasks ran for over the last interval, in milliseconds.
+     */
+    public double getAverageServiceMillis() {
+        return averageServiceMillis;
+    }
+
+    /**
+     * @return The number of tasks refused by tryExecute() or execute() since the pool started.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public void shutdown() {
+        sizer.shutdownNow();
         executor.shutdown();
         try {
             if (!executor.awaitTermination(Constant.THREAD_TIMEOUT, TimeUnit.SECONDS)) {
@@ -34,13 +163,29 @@ public class ThreadPool {
             executor.shutdownNow();
             Thread.currentThread().interrupt();
         }
+    }
+
+    /**
+     * A queued task, timed from when it was queued to when it finished.
+     */
+    private final class Task implements Runnable {
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+
+        Task(Runnable task) {
+            this.task = task;
+        }
 
-        for (Thread thread : managedThreads) {
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            waitNanos.add(started - queuedAt);
             try {
-                thread.join(Constant.THREAD_JOIN); // Wait for 1 second for each thread to finish
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                task.run();
+            } finally {
+                busyNanos.add(System.nanoTime() - started);
+                completed.increment();
             }
         }
     }
-}
\ No newline at end of file
+}
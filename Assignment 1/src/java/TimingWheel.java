@@ -0,0 +1,172 @@
+/**
+ * Ruoyu Lu
+ * 1466195
+ * TimingWheel.java
+ * Hierarchical timing wheel for large numbers of timeouts, such as word expiries.
+ * Time advances in ticks of tickMillis. Level 0 has one bucket per tick for the next WHEEL_SIZE ticks, and each
+ * level above has buckets WHEEL_SIZE times as wide. A timeout goes into the finest level whose span covers its
+ * deadline; when the lower levels wrap round, the next bucket of the level above is emptied into them. Scheduling
+ * and cancelling are O(1), and a tick only touches the timeouts that are due, however many are pending.
+ * Due tasks run on the wheel's own thread, so they should be short and hand any slow work elsewhere. A task that
+ * throws is reported on standard error and the wheel carries on.
+ */
+public class TimingWheel {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int LEVELS = 6; // 64^6 ticks: centuries even at a millisecond tick
+
+    private final long tickMillis;
+    private final Timeout[][] buckets = new Timeout[LEVELS][WHEEL_SIZE]; // sentinels of circular lists
+    private final long start = System.nanoTime();
+    private long currentTick; // guarded by this
+    private int pending; // guarded by this
+    private final Thread ticker;
+
+    public TimingWheel(long tickMillis, String threadName) {
+        this.tickMillis = tickMillis;
+        for (Timeout[] level : buckets) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Timeout sentinel = new Timeout(0, null);
+                sentinel.previous = sentinel;
+                sentinel.next = sentinel;
+                level[i] = sentinel;
+            }
+        }
+        ticker = new Thread(this::run, threadName);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Run a task once delayMillis have passed, rounded up to the next tick.
+     *
+     * @return A handle to cancel the task with.
+     */
+    public synchronized Timeout schedule(long delayMillis, Runnable task) {
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        long limit = (1L << (WHEEL_BITS * LEVELS)) - 1;
+        Timeout timeout = new Timeout(currentTick + Math.min(ticks, limit), task);
+        place(timeout);
+        pending++;
+        return timeout;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public void stop() {
+        ticker.interrupt();
+    }
+
+    private void place(Timeout timeout) {
+        long remaining = timeout.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && remaining >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        Timeout sentinel = buckets[level][(int) (timeout.deadline >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1)];
+        timeout.previous = sentinel.previous;
+        timeout.next = sentinel;
+        sentinel.previous.next = timeout;
+        sentinel.previous = timeout;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                long elapsedTicks = (System.nanoTime() - start) / 1_000_000 / tickMillis;
+                Timeout due = null;
+                synchronized (this) {
+                    // Catch up tick by tick after a pause, so no bucket is skipped
+                    while (currentTick < elapsedTicks) {
+                        due = advance(due);
+                    }
+                }
+                for (Timeout timeout = due; timeout != null; timeout = timeout.next) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        // One failed task must not end the thread, or no later timeout would ever fire
+                        System.err.println("Timed task failed: " + e);
+                    }
+                }
+                long nextTickNanos = start + (elapsedTicks + 1) * tickMillis * 1_000_000;
+                long sleep = (nextTickNanos - System.nanoTime()) / 1_000_000;
+                Thread.sleep(Math.max(1, sleep));
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    // Move to the next tick, and add the timeouts that fall due to the (singly linked) list of due ones
+    private Timeout advance(Timeout due) {
+        currentTick++;
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            Timeout sentinel = buckets[level][(int) (currentTick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1)];
+            for (Timeout timeout = detachAll(sentinel); timeout != null; ) {
+                Timeout next = timeout.next;
+                place(timeout);
+                timeout = next;
+            }
+        }
+        Timeout sentinel = buckets[0][(int) currentTick & (WHEEL_SIZE - 1)];
+        for (Timeout timeout = detachAll(sentinel); timeout != null; ) {
+            Timeout next = timeout.next;
+            timeout.previous = null; // marks it as fired
+            timeout.next = due;
+            due = timeout;
+            pending--;
+            timeout = next;
+        }
+        return due;
+    }
+
+    // Empty a bucket, returning its timeouts as a null-terminated list
+    private static Timeout detachAll(Timeout sentinel) {
+        if (sentinel.next == sentinel) {
+            return null;
+        }
+        Timeout first = sentinel.next;
+        sentinel.previous.next = null;
+        sentinel.previous = sentinel;
+        sentinel.next = sentinel;
+        return first;
+    }
+
+    /**
+     * A scheduled task. Cancelling one that has already run or been cancelled does nothing.
+     */
+    public final class Timeout {
+        private final long deadline; // in ticks
+        private final Runnable task;
+        private Timeout previous; // null once fired or cancelled
+        private Timeout next;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * @return True if the task was still pending and now will not run.
+         */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (previous == null) {
+                    return false;
+                }
+                previous.next = next;
+                next.previous = previous;
+                previous = null;
+                next = null;
+                pending--;
+                return true;
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Ruoyu Lu
@@ -9,12 +11,18 @@ import java.io.IOException;
  * UserInterface.java
  * GUI interface for the dictionary client.
  * Provides a text field for user input, buttons for adding, querying, deleting, appending, and updating words in the dictionary,
+ * buttons for completing a prefix, suggesting spellings and searching definitions,
+ * buttons for watching a word or prefix for changes and for making a word expire,
+ * buttons for importing and exporting a dictionary file in bulk,
  * and a display area for showing server responses.
  */
 public class UserInterface extends JFrame {
+    private static final long serialVersionUID = 1L;
     private JTextField inputField;
     private JTextArea displayArea;
-    private JButton addButton, queryButton, deleteButton, appendButton, updateButton;
+    private JButton addButton, queryButton, deleteButton, appendButton, updateButton, prefixButton, suggestButton, searchButton;
+    private JButton watchButton, expireButton, importButton, exportButton;
+    private final Set<String> watching = new HashSet<>();
     private DictionaryClient client;
 
     public UserInterface(DictionaryClient client) {
@@ -42,6 +50,13 @@ public class UserInterface extends JFrame {
         deleteButton = createButton("Delete", e -> handleDelete());
         appendButton = createButton("Append", e -> handleAppend());
         updateButton = createButton("Update", e -> handleUpdate());
+        prefixButton = createButton("Prefix", e -> handlePrefix());
+        suggestButton = createButton("Suggest", e -> handleSuggest());
+        searchButton = createButton("Search", e -> handleSearch());
+        watchButton = createButton("Watch", e -> handleWatch());
+        expireButton = createButton("Expire", e -> handleExpire());
+        importButton = createButton("Import", e -> handleBulk("Import", client::importFile));
+        exportButton = createButton("Export", e -> handleBulk("Export", client::exportFile));
 
         gbc.gridy = 1;
         gbc.gridwidth = 1;
@@ -60,12 +75,35 @@ public class UserInterface extends JFrame {
         gbc.gridx = 4;
         add(updateButton, gbc);
 
+        gbc.gridx = 0;
+        gbc.gridy = 2;
+        add(prefixButton, gbc);
+
+        gbc.gridx = 1;
+        add(suggestButton, gbc);
+
+        gbc.gridx = 2;
+        add(searchButton, gbc);
+
+        gbc.gridx = 3;
+        add(watchButton, gbc);
+
+        gbc.gridx = 4;
+        add(expireButton, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 3;
+        add(importButton, gbc);
+
+        gbc.gridx = 1;
+        add(exportButton, gbc);
+
         // Display area
         displayArea = new JTextArea(10, 30);
         displayArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(displayArea);
         gbc.gridx = 0;
-        gbc.gridy = 2;
+        gbc.gridy = 4;
         gbc.gridwidth = 4;
         gbc.fill = GridBagConstraints.BOTH;
         gbc.weighty = 1.0;
@@ -126,6 +164,104 @@ public class UserInterface extends JFrame {
         }
     }
 
+    private void handlePrefix() {
+        String prefix = inputField.getText();
+        if (prefix != null && !prefix.isEmpty()) {
+            try {
+                String response = client.prefix(prefix);
+                displayArea.append("Words starting with '" + prefix + "':\n" + response + "\n");
+            } catch (IOException e) {
+                displayArea.append("Error: " + e.getMessage() + "\n");
+            }
+        }
+    }
+
+    private void handleSuggest() {
+        String word = inputField.getText();
+        if (word != null && !word.isEmpty()) {
+            try {
+                String response = client.suggest(word);
+                displayArea.append("Did you mean:\n" + response + "\n");
+            } catch (IOException e) {
+                displayArea.append("Error: " + e.getMessage() + "\n");
+            }
+        }
+    }
+
+    private void handleSearch() {
+        String terms = inputField.getText();
+        if (terms != null && !terms.isEmpty()) {
+            try {
+                String response = client.search(terms);
+                displayArea.append("Definitions mentioning '" + terms + "':\n" + response + "\n");
+            } catch (IOException e) {
+                displayArea.append("Error: " + e.getMessage() + "\n");
+            }
+        }
+    }
+
+    // Toggles: the first click watches the word (or "prefix*"), the next one stops watching it
+    private void handleWatch() {
+        String pattern = inputField.getText();
+        if (pattern != null && !pattern.isEmpty()) {
+            try {
+                String response;
+                if (watching.remove(pattern)) {
+                    response = client.unwatch(pattern);
+                } else {
+                    response = client.watch(pattern, event ->
+                            SwingUtilities.invokeLater(() -> displayArea.append("Changed: " + event + "\n")));
+                    watching.add(pattern);
+                }
+                displayArea.append("Server response: " + response + "\n");
+            } catch (IOException e) {
+                displayArea.append("Error: " + e.getMessage() + "\n");
+            }
+        }
+    }
+
+    private void handleExpire() {
+        String word = inputField.getText();
+        String seconds = JOptionPane.showInputDialog("Expire after how many seconds (0 to keep the word):");
+        if (word != null && !word.isEmpty() && seconds != null && !seconds.isEmpty()) {
+            try {
+                String response = client.expire(word, Long.parseLong(seconds.trim()));
+                displayArea.append("Server response: " + response + "\n");
+            } catch (NumberFormatException e) {
+                displayArea.append("Error: not a number of seconds: " + seconds + "\n");
+            } catch (IOException e) {
+                displayArea.append("Error: " + e.getMessage() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Import from or export to the file named in the input field. A large file takes a while, so the transfer runs
+     * on a thread of its own and reports back when it is done.
+     */
+    private void handleBulk(String operation, BulkTransfer transfer) {
+        String path = inputField.getText();
+        if (path != null && !path.isEmpty()) {
+            displayArea.append(operation + " of " + path + " started\n");
+            Thread thread = new Thread(() -> {
+                String result;
+                try {
+                    result = operation + " finished: " + transfer.run(path);
+                } catch (IOException e) {
+                    result = "Error: " + e.getMessage();
+                }
+                String message = result;
+                SwingUtilities.invokeLater(() -> displayArea.append(message + "\n"));
+            }, "dictionary-" + operation.toLowerCase());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private interface BulkTransfer {
+        String run(String path) throws IOException;
+    }
+
     private void handleAppend() {
         String word = inputField.getText();
         String definition = JOptionPane.showInputDialog("Enter definition to append:");
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * WatchRegistry.java
+ * Change subscriptions: clients watch a word, or every word starting with a prefix (written "prefix*", so "*"
+ * watches everything), and are sent an event whenever a matching word changes.
+ * An event is a DictionaryResponse carrying the id of the watch request, the message "added word",
+ * "changed word" or "deleted word", and for the first two the word's definitions as nested results.
+ * Events are produced inside the atomic update of the word, so each watcher sees the changes to one word in order.
+ * Finding the watches costs one lookup per prefix of the changed word, and nothing when there are none.
+ */
+public class WatchRegistry implements DictionaryListener {
+    private final ConcurrentHashMap<String, Set<Watch>> words = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Watch>> prefixes = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public void wordChanged(String word, List<String> oldDefinitions, List<String> newDefinitions) {
+        if (count.get() == 0) {
+            return;
+        }
+        notify(words.get(word), word, oldDefinitions, newDefinitions);
+        for (int length = 0; length <= word.length() && !prefixes.isEmpty(); length++) {
+            notify(prefixes.get(word.substring(0, length)), word, oldDefinitions, newDefinitions);
+        }
+    }
+
+    /**
+     * Start sending events for a word or prefix.
+     *
+     * @param pattern A word, or a prefix followed by '*'.
+     * @param id      The id of the watch request, which every event carries.
+     * @param sink    Receives the events; it is called while the word is locked, so it must not block.
+     * @return A handle for unwatch().
+     */
+    public Watch watch(String pattern, long id, Consumer<DictionaryResponse> sink) {
+        pattern = pattern.toLowerCase();
+        boolean prefix = pattern.endsWith("*");
+        Watch watch = new Watch(prefix ? pattern.substring(0, pattern.length() - 1) : pattern, prefix, id, sink);
+        // Add inside compute(), as unwatch() removes there: otherwise it could drop the set between the two steps
+        (prefix ? prefixes : words).compute(watch.key, (key, watches) -> {
+            if (watches == null) {
+                watches = ConcurrentHashMap.newKeySet();
+            }
+            watches.add(watch);
+            count.incrementAndGet();
+            return watches;
+        });
+        return watch;
+    }
+
+    public void unwatch(Watch watch) {
+        (watch.prefix ? prefixes : words).computeIfPresent(watch.key, (key, watches) -> {
+            if (watches.remove(watch)) {
+                count.decrementAndGet();
+            }
+            return watches.isEmpty() ? null : watches;
+        });
+    }
+
+    /**
+     * @return The number of active watches.
+     */
+    public int size() {
+        return count.get();
+    }
+
+    private static void notify(Set<Watch> watches, String word, List<String> oldDefinitions,
+                               List<String> newDefinitions) {
+        if (watches == null) {
+            return;
+        }
+        String kind = newDefinitions == null ? "deleted" : oldDefinitions == null ? "added" : "changed";
+        List<DictionaryResponse> definitions = null;
+        if (newDefinitions != null) {
+            definitions = new ArrayList<>(newDefinitions.size());
+            for (String definition : newDefinitions) {
+                definitions.add(new DictionaryResponse(definition));
+            }
+        }
+        for (Watch watch : watches) {
+            watch.sink.accept(new DictionaryResponse(watch.id, kind + " " + word, definitions));
+        }
+    }
+
+    /**
+     * One registration, as returned by watch().
+     */
+    public static final class Watch {
+        private final String key;
+        private final boolean prefix;
+        private final long id;
+        private final Consumer<DictionaryResponse> sink;
+
+        private Watch(String key, boolean prefix, long id, Consumer<DictionaryResponse> sink) {
+            this.key = key;
+            this.prefix = prefix;
+            this.id = id;
+            this.sink = sink;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * WordTrie.java
+ * Concurrent trie over the dictionary words, used for prefix completion and "did you mean" suggestions.
+ * Each node publishes its children as one immutable sorted array pair, so lookups walk the trie without locking
+ * while writers (serialised on the trie) copy the arrays of the one node they change.
+ * Suggestions walk the trie with one row of the Levenshtein table per node and abandon a branch as soon as every
+ * cell in its row exceeds the allowed distance, so only the neighbourhood of the term is visited.
+ */
+public class WordTrie implements DictionaryListener {
+    private final Node root = new Node();
+    private final Object writeLock = new Object();
+
+    @Override
+    public void wordChanged(String word, List<String> oldDefinitions, List<String> newDefinitions) {
+        if (oldDefinitions == null && newDefinitions != null) {
+            insert(word);
+        } else if (oldDefinitions != null && newDefinitions == null) {
+            remove(word);
+        }
+    }
+
+    public void insert(String word) {
+        synchronized (writeLock) {
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.childOrCreate(word.charAt(i));
+            }
+            node.terminal = true;
+        }
+    }
+
+    public void remove(String word) {
+        synchronized (writeLock) {
+            Node[] path = new Node[word.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < word.length(); i++) {
+                path[i + 1] = path[i].child(word.charAt(i));
+                if (path[i + 1] == null) {
+                    return;
+                }
+            }
+            path[word.length()].terminal = false;
+            // Drop the branch back to the last node that still leads to another word
+            for (int i = word.length() - 1; i >= 0; i--) {
+                Node node = path[i + 1];
+                if (node.terminal || node.children.labels.length > 0) {
+                    break;
+                }
+                path[i].removeChild(word.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * @return Up to limit words starting with the prefix, in alphabetical order.
+     */
+    public List<String> complete(String prefix, int limit) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        List<String> results = new ArrayList<>();
+        if (node != null) {
+            collect(node, new StringBuilder(prefix), word -> true, limit, results);
+        }
+        return results;
+    }
+
+    /**
+     * Page through the words in alphabetical order. The walk starts at the cursor, so a page visits only the
+     * words after it up to the last one returned, and paging through every word visits each word once.
+     *
+     * @return Up to limit words after the given one that the filter accepts, in alphabetical order.
+     */
+    public List<String> wordsAfter(String after, Predicate<String> filter, int limit) {
+        List<String> results = new ArrayList<>();
+        collectAfter(root, new StringBuilder(), after, filter, limit, results);
+        return results;
+    }
+
+    /**
+     * @return Up to limit words within maxDistance edits of the term, closest first, then alphabetically.
+     */
+    public List<String> suggest(String term, int maxDistance, int limit) {
+        int[] firstRow = new int[term.length() + 1];
+        for (int i = 0; i < firstRow.length; i++) {
+            firstRow[i] = i;
+        }
+        List<Match> matches = new ArrayList<>();
+        Children children = root.children;
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < children.labels.length; i++) {
+            search(children.nodes[i], children.labels[i], firstRow, term, maxDistance, path, matches);
+        }
+        matches.sort(Comparator.comparingInt((Match match) -> match.distance).thenComparing(match -> match.word));
+        List<String> results = new ArrayList<>();
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            results.add(matches.get(i).word);
+        }
+        return results;
+    }
+
+    private static void collect(Node node, StringBuilder path, Predicate<String> filter, int limit,
+                                List<String> results) {
+        if (node.terminal && results.size() < limit) {
+            String word = path.toString();
+            if (filter.test(word)) {
+                results.add(word);
+            }
+        }
+        Children children = node.children;
+        for (int i = 0; i < children.labels.length && results.size() < limit; i++) {
+            path.append(children.labels[i]);
+            collect(children.nodes[i], path, filter, limit, results);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    // The node is reached by the first path.length() characters of after, and is not itself after it
+    private static void collectAfter(Node node, StringBuilder path, String after, Predicate<String> filter,
+                                     int limit, List<String> results) {
+        Children children = node.children;
+        int next = 0;
+        if (path.length() < after.length()) {
+            char label = after.charAt(path.length());
+            int index = Arrays.binarySearch(children.labels, label);
+            if (index >= 0) {
+                path.append(label);
+                collectAfter(children.nodes[index], path, after, filter, limit, results);
+                path.setLength(path.length() - 1);
+                next = index + 1;
+            } else {
+                next = -index - 1;
+            }
+        }
+        for (int i = next; i < children.labels.length && results.size() < limit; i++) {
+            path.append(children.labels[i]);
+            collect(children.nodes[i], path, filter, limit, results);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    private static void search(Node node, char label, int[] previousRow, String term, int maxDistance,
+                               StringBuilder path, List<Match> matches) {
+        int[] row = new int[previousRow.length];
+        row[0] = previousRow[0] + 1;
+        int rowMinimum = row[0];
+        for (int i = 1; i < row.length; i++) {
+            int substitution = previousRow[i - 1] + (term.charAt(i - 1) == label ? 0 : 1);
+            row[i] = Math.min(substitution, Math.min(row[i - 1] + 1, previousRow[i] + 1));
+            rowMinimum = Math.min(rowMinimum, row[i]);
+        }
+        path.append(label);
+        int distance = row[row.length - 1];
+        if (node.terminal && distance <= maxDistance) {
+            matches.add(new Match(path.toString(), distance));
+        }
+        if (rowMinimum <= maxDistance) {
+            Children children = node.children;
+            for (int i = 0; i < children.labels.length; i++) {
+                search(children.nodes[i], children.labels[i], row, term, maxDistance, path, matches);
+            }
+        }
+        path.setLength(path.length() - 1);
+    }
+
+    private static final class Node {
+        volatile Children children = Children.EMPTY;
+        volatile boolean terminal;
+
+        Node child(char label) {
+            Children current = children;
+            int index = Arrays.binarySearch(current.labels, label);
+            return index < 0 ? null : current.nodes[index];
+        }
+
+        // Writers only, under the trie's write lock
+        Node childOrCreate(char label) {
+            Children current = children;
+            int index = Arrays.binarySearch(current.labels, label);
+            if (index >= 0) {
+                return current.nodes[index];
+            }
+            int insertAt = -index - 1;
+            int size = current.labels.length;
+            char[] labels = new char[size + 1];
+            Node[] nodes = new Node[size + 1];
+            System.arraycopy(current.labels, 0, labels, 0, insertAt);
+            System.arraycopy(current.nodes, 0, nodes, 0, insertAt);
+            System.arraycopy(current.labels, insertAt, labels, insertAt + 1, size - insertAt);
+            System.arraycopy(current.nodes, insertAt, nodes, insertAt + 1, size - insertAt);
+            Node child = new Node();
+            labels[insertAt] = label;
+            nodes[insertAt] = child;
+            children = new Children(labels, nodes);
+            return child;
+        }
+
+        void removeChild(char label) {
+            Children current = children;
+            int index = Arrays.binarySearch(current.labels, label);
+            if (index < 0) {
+                return;
+            }
+            int size = current.labels.length;
+            char[] labels = new char[size - 1];
+            Node[] nodes = new Node[size - 1];
+            System.arraycopy(current.labels, 0, labels, 0, index);
+            System.arraycopy(current.nodes, 0, nodes, 0, index);
+            System.arraycopy(current.labels, index + 1, labels, index, size - index - 1);
+            System.arraycopy(current.nodes, index + 1, nodes, index, size - index - 1);
+            children = new Children(labels, nodes);
+        }
+    }
+
+    private static final class Children {
+        static final Children EMPTY = new Children(new char[0], new Node[0]);
+        final char[] labels;
+        final Node[] nodes;
+
+        Children(char[] labels, Node[] nodes) {
+            this.labels = labels;
+            this.nodes = nodes;
+        }
+    }
+
+    private static final class Match {
+        final String word;
+        final int distance;
+
+        Match(String word, int distance) {
+            this.word = word;
+            this.distance = distance;
+        }
+    }
+}
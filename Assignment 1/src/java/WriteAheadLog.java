@@ -0,0 +1,313 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Ruoyu Lu
+ * 1466195
+ * WriteAheadLog.java
+ * Append-only binary log of dictionary mutations, written as numbered segment files next to the dictionary file.
+ * Each record holds the full state of one word after a mutation (its definitions, or a removal), so replaying a
+ * record more than once is harmless. Records are buffered in memory and a background thread writes and fsyncs
+ * whatever has accumulated in one go (group commit), so concurrent writers share the cost of each fsync.
+ * The same framed records (length, CRC32, body) are what a replication leader ships to its followers.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024; // anything larger is a corrupt length field
+
+    private final Path directory;
+    private final String segmentPrefix;
+    private final Object lock = new Object();
+    private final Object ioLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    private long recordsInSegment;
+    private long generation;
+    private FileChannel channel;
+    private IOException failure;
+    private volatile boolean closed;
+    private final Thread flusher;
+
+    /**
+     * Open the log for the given dictionary file, starting a fresh segment after any existing ones.
+     * Call replay() first to recover the existing segments.
+     *
+     * @param fileName The dictionary file the log belongs to.
+     */
+    public WriteAheadLog(String fileName) throws IOException {
+        Path base = Paths.get(fileName).toAbsolutePath();
+        this.directory = base.getParent();
+        this.segmentPrefix = base.getFileName() + ".wal.";
+        TreeMap<Long, Path> segments = listSegments();
+        this.generation = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        this.channel = openSegment(generation);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Replay every segment of the given dictionary file in order.
+     * A torn or corrupt record ends its segment, since it can only be the tail of an interrupted write.
+     *
+     * @param fileName The dictionary file the log belongs to.
+     * @param apply    Receives each word with its definitions, or null definitions for a removal.
+     * @return The number of records replayed.
+     */
+    public static long replay(String fileName, BiConsumer<String, List<String>> apply) throws IOException {
+        Path base = Paths.get(fileName).toAbsolutePath();
+        long count = 0;
+        for (Path segment : listSegments(base.getParent(), base.getFileName() + ".wal.").values()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                while (readRecord(in, apply)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read one framed record.
+     *
+     * @param apply Receives the word with its definitions, or null definitions for a removal.
+     * @return False at the end of the stream or at a torn or corrupt record, which is not applied.
+     */
+    public static boolean readRecord(DataInputStream in, BiConsumer<String, List<String>> apply) throws IOException {
+        byte[] body;
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                return false;
+            }
+            body = new byte[length];
+            in.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                return false;
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+        decode(body, apply);
+        return true;
+    }
+
+    /**
+     * Encode the state of a word as a framed record.
+     *
+     * @param definitions The new definitions, or null for a removal.
+     */
+    public static byte[] encodeRecord(String word, List<String> definitions) {
+        ByteBuffer body = definitions == null ? encode(REMOVE, word, null) : encode(PUT, word, definitions);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, body.limit());
+        ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + body.limit());
+        record.putInt(body.limit()).putInt((int) crc.getValue()).put(body.array(), 0, body.limit());
+        return record.array();
+    }
+
+    /**
+     * Log a record made by encodeRecord(). Returns a position to pass to awaitDurable.
+     */
+    public long logRecord(byte[] record) {
+        synchronized (lock) {
+            pending.write(record, 0, record.length);
+            recordsInSegment++;
+            lock.notifyAll();
+            return ++appended;
+        }
+    }
+
+    /**
+     * Block until the record at the given position (and everything before it) has been fsynced.
+     */
+    public void awaitDurable(long position) throws IOException {
+        synchronized (lock) {
+            while (durable < position) {
+                if (failure != null) {
+                    throw new IOException("Write-ahead log failed: " + failure.getMessage(), failure);
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for write-ahead log");
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of records logged since the last rotation.
+     */
+    public long getRecordsInSegment() {
+        synchronized (lock) {
+            return recordsInSegment;
+        }
+    }
+
+    /**
+     * Make everything logged so far durable and start a new segment.
+     * The caller must stop new records from being logged while this runs.
+     *
+     * @return The generation of the segment that was closed.
+     */
+    public long rotate() throws IOException {
+        long target;
+        synchronized (lock) {
+            target = appended;
+        }
+        awaitDurable(target);
+        synchronized (ioLock) {
+            channel.close();
+            long closedGeneration = generation++;
+            channel = openSegment(generation);
+            synchronized (lock) {
+                recordsInSegment = 0;
+            }
+            return closedGeneration;
+        }
+    }
+
+    /**
+     * Delete segments up to and including the given generation, once a snapshot covers them.
+     */
+    public void deleteSegmentsUpTo(long lastGeneration) throws IOException {
+        for (Path segment : listSegments().headMap(lastGeneration, true).values()) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        long target;
+        synchronized (lock) {
+            target = appended;
+        }
+        awaitDurable(target);
+        closed = true;
+        flusher.interrupt();
+        synchronized (ioLock) {
+            channel.close();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            ByteArrayOutputStream batch;
+            long batchEnd;
+            synchronized (lock) {
+                while (pending.size() == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                batchEnd = appended;
+                pending = new ByteArrayOutputStream(batch.size());
+            }
+            try {
+                synchronized (ioLock) {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+                synchronized (lock) {
+                    durable = batchEnd;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private static ByteBuffer encode(byte type, String word, List<String> definitions) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            writeString(out, word);
+            if (type == PUT) {
+                out.writeInt(definitions.size());
+                for (String definition : definitions) {
+                    writeString(out, definition);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen on a byte array
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void decode(byte[] body, BiConsumer<String, List<String>> apply) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        String word = readString(in);
+        if (type == PUT) {
+            int count = in.readInt();
+            List<String> definitions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                definitions.add(readString(in));
+            }
+            apply.accept(word, definitions);
+        } else if (type == REMOVE) {
+            apply.accept(word, null);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private FileChannel openSegment(long segmentGeneration) throws IOException {
+        return FileChannel.open(directory.resolve(segmentPrefix + segmentGeneration),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        return listSegments(directory, segmentPrefix);
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory, String prefix) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path path : stream) {
+                String suffix = path.getFileName().toString().substring(prefix.length());
+                if (suffix.matches("\\d+")) {
+                    segments.put(Long.parseLong(suffix), path);
+                }
+            }
+        }
+        return segments;
+    }
+}
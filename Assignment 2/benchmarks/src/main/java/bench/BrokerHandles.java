@@ -0,0 +1,74 @@
+/*
+ * The broker classes live in the default package, which a named package (and JMH needs one) cannot import.
+ * These handles are resolved once; held in static finals the JIT treats them like direct calls.
+ */
+
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.util.Map;
+
+final class BrokerHandles {
+    static final MethodHandle FORMAT_MESSAGE;    // (String topicId, String topicName, String publisher, String message) -> String
+    static final MethodHandle NEW_BROKER;        // (int port) -> broker
+    static final MethodHandle START;             // (broker) -> void
+    static final MethodHandle CONNECT_TO_BROKER; // (broker, String name, String ip, int port) -> void
+    static final MethodHandle CREATE_TOPIC;      // (broker, String topicId, String topicName, String publisher) -> String
+    static final MethodHandle SUBSCRIBE_TOPIC;   // (broker, String topicId, String subscriber) -> void
+    static final MethodHandle PUBLISH_MESSAGE;   // (broker, String topicId, String message, String publisher) -> void
+    static final MethodHandle PARSE_BROADCAST;   // (String[] parts) -> broker.Broadcast, as Object
+
+    private static final Class<?> BROKER;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> handler = Class.forName("messageHandler");
+            BROKER = Class.forName("broker");
+            FORMAT_MESSAGE = lookup.findStatic(handler, "formatMessage",
+                    MethodType.methodType(String.class, String.class, String.class, String.class, String.class));
+            NEW_BROKER = lookup.findConstructor(BROKER, MethodType.methodType(void.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class));
+            START = virtual(lookup, "start", MethodType.methodType(void.class));
+            CONNECT_TO_BROKER = virtual(lookup, "connectToBroker",
+                    MethodType.methodType(void.class, String.class, String.class, int.class));
+            CREATE_TOPIC = virtual(lookup, "createTopic",
+                    MethodType.methodType(String.class, String.class, String.class, String.class));
+            SUBSCRIBE_TOPIC = virtual(lookup, "subscribeTopic",
+                    MethodType.methodType(void.class, String.class, String.class));
+            PUBLISH_MESSAGE = virtual(lookup, "publishMessage",
+                    MethodType.methodType(void.class, String.class, String.class, String.class));
+            PARSE_BROADCAST = lookup.findStatic(BROKER, "parseBroadcast",
+                    MethodType.methodType(Class.forName("broker$Broadcast"), String[].class))
+                    .asType(MethodType.methodType(Object.class, String[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BrokerHandles() {
+    }
+
+    // Bind the receiver type to Object so callers can invokeExact without naming the broker class
+    private static MethodHandle virtual(MethodHandles.Lookup lookup, String name, MethodType type)
+            throws ReflectiveOperationException {
+        MethodHandle handle = lookup.findVirtual(BROKER, name, type);
+        return handle.asType(handle.type().changeParameterType(0, Object.class));
+    }
+
+    // Read one of the broker's private maps, used to register in-process clients without a handshake
+    @SuppressWarnings("unchecked")
+    static <K, V> Map<K, V> field(Object broker, String name) throws ReflectiveOperationException {
+        Field field = BROKER.getDeclaredField(name);
+        field.setAccessible(true);
+        return (Map<K, V>) field.get(broker);
+    }
+
+    static Map<String, Socket> sockets(Object broker, String name) throws ReflectiveOperationException {
+        return field(broker, name);
+    }
+}
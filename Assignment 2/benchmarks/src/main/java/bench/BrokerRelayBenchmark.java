@@ -0,0 +1,155 @@
+/*
+ * Measures a publish relayed across three brokers on loopback, from the publisher's socket on the first broker
+ * to subscriber sockets on the other two, using the real wire protocol.
+ */
+
+package bench;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerRelayBenchmark {
+    private static final String TOPIC_ID = "relay";
+    private static final int BROKERS = 3;
+    private static final long SETUP_TIMEOUT_MS = 20000;
+
+    private Socket publisherSocket;
+    private PrintWriter publisherOut;
+    private BufferedReader publisherIn;
+    private Socket[] subscriberSockets = new Socket[BROKERS - 1];
+    private BufferedReader[] subscriberIns = new BufferedReader[BROKERS - 1];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        int[] ports = new int[BROKERS];
+        Object[] brokers = new Object[BROKERS];
+        for (int i = 0; i < BROKERS; i++) {
+            ports[i] = freePort();
+            brokers[i] = BrokerHandles.NEW_BROKER.invokeExact(ports[i]);
+            Object instance = brokers[i];
+            Thread server = new Thread(() -> {
+                try {
+                    BrokerHandles.START.invokeExact(instance);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }, "broker-" + ports[i]);
+            server.setDaemon(true);
+            server.start();
+        }
+        for (int port : ports) {
+            awaitListening(port);
+        }
+        // Full mesh, as with "java -jar broker.jar <port> -b <other brokers>"
+        for (int i = 0; i < BROKERS; i++) {
+            for (int j = 0; j < BROKERS; j++) {
+                if (i != j) {
+                    BrokerHandles.CONNECT_TO_BROKER.invokeExact(brokers[i], "broker" + j, "localhost", ports[j]);
+                }
+            }
+        }
+        for (Object instance : brokers) {
+            Map<Integer, Object> peers = BrokerHandles.field(instance, "otherBrokers");
+            awaitCondition(() -> peers.size() == BROKERS - 1, "brokers to connect");
+        }
+
+        publisherSocket = new Socket("localhost", ports[0]);
+        publisherOut = new PrintWriter(publisherSocket.getOutputStream(), true);
+        publisherIn = new BufferedReader(new InputStreamReader(publisherSocket.getInputStream()));
+        publisherOut.println("PUBLISHER");
+        publisherOut.println("bench-publisher");
+        publisherOut.println("CREATE_TOPIC");
+        publisherOut.println(TOPIC_ID);
+        publisherOut.println("relay");
+        String created = publisherIn.readLine();
+        if (created == null || !created.startsWith("SUCCESS")) {
+            throw new IllegalStateException("Could not create topic: " + created);
+        }
+
+        for (int i = 0; i < subscriberSockets.length; i++) {
+            subscriberSockets[i] = new Socket("localhost", ports[i + 1]);
+            PrintWriter out = new PrintWriter(subscriberSockets[i].getOutputStream(), true);
+            subscriberIns[i] = new BufferedReader(new InputStreamReader(subscriberSockets[i].getInputStream()));
+            out.println("SUBSCRIBER");
+            out.println("bench-subscriber-" + i);
+            subscribe(out, subscriberIns[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        publisherSocket.close();
+        for (Socket socket : subscriberSockets) {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public String relay() throws IOException {
+        publisherOut.println("PUBLISH_MESSAGE");
+        publisherOut.println(TOPIC_ID);
+        publisherOut.println("The quick brown fox jumps over the lazy dog");
+        String last = publisherIn.readLine();
+        for (BufferedReader in : subscriberIns) {
+            last = in.readLine();
+        }
+        return last;
+    }
+
+    // The topic reaches the other brokers through SYNC_TOPIC, so retry until it has arrived
+    private static void subscribe(PrintWriter out, BufferedReader in) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + SETUP_TIMEOUT_MS;
+        while (true) {
+            out.println("SUBSCRIBE_TOPIC");
+            out.println(TOPIC_ID);
+            String response = in.readLine();
+            if (response != null && response.startsWith("SUCCESS")) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Could not subscribe: " + response);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        awaitCondition(() -> {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("localhost", port), 100);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }, "port " + port);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition, String what)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETUP_TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Timed out waiting for " + what);
+            }
+            Thread.sleep(20);
+        }
+    }
+}
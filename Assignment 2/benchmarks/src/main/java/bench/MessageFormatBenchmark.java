@@ -0,0 +1,26 @@
+/*
+ * Measures messageHandler.formatMessage, which runs once for every published message.
+ */
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageFormatBenchmark {
+    private String topicId = "t1";
+    private String topicName = "news";
+    private String publisherName = "alice";
+    private String message = "The quick brown fox jumps over the lazy dog";
+
+    @Benchmark
+    public String formatMessage() throws Throwable {
+        return (String) BrokerHandles.FORMAT_MESSAGE.invokeExact(topicId, topicName, publisherName, message);
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * An unconnected socket that discards everything written to it, standing in for an in-process client.
+ */
+
+package bench;
+
+import java.io.OutputStream;
+import java.net.Socket;
+
+final class NullSocket extends Socket {
+    @Override
+    public OutputStream getOutputStream() {
+        return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+}
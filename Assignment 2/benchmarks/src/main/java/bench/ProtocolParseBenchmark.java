@@ -0,0 +1,38 @@
+/*
+ * Measures the String.split("\\|") parsing the broker applies to every inter-broker line, and for broadcasts
+ * broker.parseBroadcast, which pulls the fields out of the split line.
+ */
+
+package bench;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolParseBenchmark {
+    private String broadcastLine;
+    private String syncTopicLine;
+
+    @Setup
+    public void setUp() {
+        broadcastLine = "BROADCAST_MESSAGE|t1|19/10 14:00:25 t1:news:alice The quick brown fox|"
+                + UUID.randomUUID() + "|10.0.0.7:8080|1729346425000|42";
+        syncTopicLine = "SYNC_TOPIC|t1|news|alice";
+    }
+
+    @Benchmark
+    public Object parseBroadcast() throws Throwable {
+        return (Object) BrokerHandles.PARSE_BROADCAST.invokeExact(broadcastLine.split("\\|"));
+    }
+
+    @Benchmark
+    public String[] parseSyncTopic() {
+        return syncTopicLine.split("\\|");
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Measures broker.publishMessage fanning one message out to in-process subscribers.
+ * Subscribers are registered directly with discarding sockets, so the cost is the broker's own work.
+ */
+
+package bench;
+
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishFanOutBenchmark {
+    private static final String TOPIC_ID = "t1";
+    private static final String PUBLISHER = "alice";
+
+    @Param({"1", "100", "10000"})
+    public int subscribers;
+
+    private Object broker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        // The broker is never started, so no port is bound
+        broker = BrokerHandles.NEW_BROKER.invokeExact(0);
+        Map<String, Socket> publisherSockets = BrokerHandles.sockets(broker, "publisherSockets");
+        Map<String, Socket> subscriberSockets = BrokerHandles.sockets(broker, "subscriberSockets");
+        publisherSockets.put(PUBLISHER, new NullSocket());
+        String created = (String) BrokerHandles.CREATE_TOPIC.invokeExact(broker, TOPIC_ID, "news", PUBLISHER);
+        if (!created.startsWith("SUCCESS")) {
+            throw new IllegalStateException(created);
+        }
+        for (int i = 0; i < subscribers; i++) {
+            String name = "sub" + i;
+            subscriberSockets.put(name, new NullSocket());
+            BrokerHandles.SUBSCRIBE_TOPIC.invokeExact(broker, TOPIC_ID, name);
+        }
+    }
+
+    // Only one benchmark thread touches the topic, matching the single shard thread that owns it in the broker
+    @Benchmark
+    @Threads(1)
+    public void publish() throws Throwable {
+        BrokerHandles.PUBLISH_MESSAGE.invokeExact(broker, TOPIC_ID, "The quick brown fox jumps over the lazy dog", PUBLISHER);
+    }
+}
@@ -6,21 +6,31 @@ import java.util.*;
 import java.net.*;
 import java.io.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.UUID;
 
 public class broker {
     private static final int MAX_PUBLISHERS = 5;
     private static final int MAX_SUBSCRIBERS = 10;
+    private static final int REORDER_CAPACITY = 64;
+    private static final long REORDER_TIMEOUT_MS = 2000;
+    private static final int SHARD_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int SHARD_QUEUE_CAPACITY = 4096;
 
     private int port;
+    // Names this broker as the origin of the messages published through it: host:port, and when this run started
+    private final String origin;
+    private final long epoch = System.currentTimeMillis();
     private Map<String, Topic> topics;
     private Map<String, Socket> publisherSockets;
     private Map<String, Socket> subscriberSockets;
     private ExecutorService executorService;
     private Map<Integer, BrokerConnection> otherBrokers;
     private ExecutorService connectionExecutor;
-    private Set<String> processedMessages = ConcurrentHashMap.newKeySet();
-    private Set<Integer> queriedBrokers = new HashSet<>();
+    // Topics hash onto these single-threaded shards; all topic state is only mutated on its shard
+    private Shard[] shards;
+    private brokerMetrics metrics;
 
     private static class BrokerConnection {
         Socket socket;
@@ -34,26 +44,166 @@ public class broker {
         }
     }
 
+    // Holds out-of-order broadcasts from one origin broker for one topic and releases them in sequence order.
+    // Buffers belong to the topic's shard, so a gap on one topic never delays delivery on another.
+    // Origins number each topic's messages from 1, and start again at 1 in a new epoch, i.e. after a restart, so
+    // that is where a buffer starts too: if 2 overtakes 1 it waits for 1 like any other gap. A broker that joins
+    // mid-stream waits out one gap timeout for the messages it missed and then carries on from the lowest it holds.
+    private static class ReorderBuffer {
+        private final TreeMap<Long, String> pending = new TreeMap<>();
+        private long epoch = -1;
+        private long nextSequence = 1;
+        private long gapSince = -1;
+
+        void offer(long epoch, long sequence, String message, Consumer<String> deliver) {
+            if (epoch != this.epoch) {
+                if (epoch < this.epoch) {
+                    brokerLogger.warn("Dropping message from a previous run of its origin broker");
+                    return;
+                }
+                // Whatever the old run left waiting behind a gap is still in order, so release it first
+                for (String held : pending.values()) {
+                    deliver.accept(held);
+                }
+                pending.clear();
+                gapSince = -1;
+                this.epoch = epoch;
+                nextSequence = 1;
+            }
+            if (sequence < nextSequence) {
+                // Arrived after its gap was skipped (or a duplicate); delivering it now would break ordering
+                if (brokerLogger.isDebugEnabled()) {
+                    brokerLogger.debug("Dropping late message with sequence " + sequence + " (expected " + nextSequence + ")");
+                }
+                return;
+            }
+            pending.put(sequence, message);
+            if (pending.size() > REORDER_CAPACITY) {
+                brokerLogger.warn("Reorder buffer full, skipping gap before sequence " + pending.firstKey());
+                nextSequence = pending.firstKey();
+            }
+            drain(deliver);
+        }
+
+        void expire(long now, Consumer<String> deliver) {
+            if (!pending.isEmpty() && now - gapSince >= REORDER_TIMEOUT_MS) {
+                brokerLogger.warn("Gap timed out, skipping from sequence " + nextSequence + " to " + pending.firstKey());
+                nextSequence = pending.firstKey();
+                drain(deliver);
+            }
+        }
+
+        private void drain(Consumer<String> deliver) {
+            boolean progressed = false;
+            while (!pending.isEmpty() && pending.firstKey() == nextSequence) {
+                deliver.accept(pending.pollFirstEntry().getValue());
+                nextSequence++;
+                progressed = true;
+            }
+            if (pending.isEmpty()) {
+                gapSince = -1;
+            } else if (progressed || gapSince < 0) {
+                gapSince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    // Single-threaded executor that owns every topic hashed to it. Connection threads hand it work through a
+    // lock-free ring buffer, so topic state (subscribers, sequences, reorder buffers, dedup set) needs no locks.
+    private class Shard implements Runnable {
+        private final ringBuffer<Runnable> inbox = new ringBuffer<>(SHARD_QUEUE_CAPACITY);
+        private final Thread thread;
+        private volatile boolean sleeping;
+        // topicId -> origin broker host:port -> reorder buffer for that origin's sequence
+        private final Map<String, Map<String, ReorderBuffer>> reorderBuffers = new HashMap<>();
+        private final Set<String> processedMessages = new HashSet<>();
+
+        Shard(int index) {
+            this.thread = new Thread(this, "broker-" + port + "-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void submit(Runnable task) {
+            while (!inbox.offer(task)) {
+                // Shard is saturated, let it catch up instead of growing an unbounded queue
+                LockSupport.unpark(thread);
+                Thread.yield();
+            }
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            long tickNanos = TimeUnit.MILLISECONDS.toNanos(REORDER_TIMEOUT_MS / 2);
+            long nextTick = System.nanoTime() + tickNanos;
+            while (true) {
+                Runnable task = inbox.poll();
+                if (task != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        brokerLogger.error("Shard task failed", e);
+                    }
+                } else {
+                    sleeping = true;
+                    if (inbox.isEmpty()) {
+                        LockSupport.parkNanos(this, Math.max(0, nextTick - System.nanoTime()));
+                    }
+                    sleeping = false;
+                }
+                if (System.nanoTime() - nextTick >= 0) {
+                    expireReorderGaps(this);
+                    nextTick = System.nanoTime() + tickNanos;
+                }
+            }
+        }
+    }
+
     public broker(int port) {
         this.port = port;
+        this.origin = localHost() + ":" + port;
         this.topics = new ConcurrentHashMap<>();
         this.publisherSockets = new ConcurrentHashMap<>();
         this.subscriberSockets = new ConcurrentHashMap<>();
         this.executorService = Executors.newFixedThreadPool(MAX_PUBLISHERS + MAX_SUBSCRIBERS);
         this.otherBrokers = new ConcurrentHashMap<>();
         this.connectionExecutor = Executors.newCachedThreadPool();
+        this.metrics = new brokerMetrics(port, publisherSockets::size, MAX_PUBLISHERS,
+                subscriberSockets::size, MAX_SUBSCRIBERS, otherBrokers::size);
+        this.shards = new Shard[SHARD_COUNT];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+            shards[i].thread.start();
+        }
+    }
+
+    private static String localHost() {
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    // The shard that owns a topic; every operation on that topic must run there
+    private Shard shardFor(String topicId) {
+        return shards[Math.floorMod(topicId.hashCode(), shards.length)];
     }
 
     // Start the broker
     public void start() {
+        // -Dbroker.metrics.port=<port> also serves plain-text metrics on localhost
+        metrics.expose(Integer.getInteger("broker.metrics.port", 0));
         try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Broker started on port " + port);
+            brokerLogger.info("Broker started on port " + port);
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 executorService.submit(() -> handleNewConnection(clientSocket));
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            brokerLogger.error("Broker stopped accepting connections on port " + port, e);
         }
     }
 
@@ -85,7 +235,7 @@ public class broker {
                 clientSocket.close();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            brokerLogger.error("Error handling new connection", e);
         }
     }
 
@@ -94,9 +244,13 @@ public class broker {
         while ((line = brokerConn.reader.readLine()) != null) {
             String[] parts = line.split("\\|");
             String messageType = parts[0];
+            if (parts.length < 2) {
+                continue;
+            }
+            Shard shard = shardFor(parts[1]);
             switch (messageType) {
                 case "SYNC_TOPIC":
-                    handleSyncTopic(parts, brokerConn);
+                    shard.submit(() -> handleSyncTopic(parts, brokerConn));
                     break;
                 case "GET_SUBSCRIBER_COUNT":
                     handleGetSubscriberCount(parts, brokerConn);
@@ -105,13 +259,13 @@ public class broker {
                     handleSubscriberCountResponse(parts);
                     break;
                 case "BROADCAST_MESSAGE":
-                    handleBroadcastMessage(parts, brokerConn);
+                    shard.submit(() -> handleBroadcastMessage(parts, brokerConn));
                     break;
                 case "DELETE_TOPIC":
-                    handleDeleteTopic(parts[1]);
+                    shard.submit(() -> handleDeleteTopic(parts[1]));
                     break;
                 case "SYNC_UNSUBSCRIBE":
-                    handleSyncUnsubscribe(parts);
+                    shard.submit(() -> handleSyncUnsubscribe(parts));
                     break;
             }
         }
@@ -123,7 +277,7 @@ public class broker {
         String publisherName = parts[3];
         if (!topics.containsKey(syncTopicId)) {
             topics.put(syncTopicId, new Topic(syncTopicId, topicName, publisherName));
-            System.out.println("Synced new topic: " + syncTopicId + " - " + topicName);
+            brokerLogger.info("Synced new topic: " + syncTopicId + " - " + topicName);
         }
     }
 
@@ -138,37 +292,84 @@ public class broker {
         int count = Integer.parseInt(parts[2]);
     }
 
-    private void handleBroadcastMessage(String[] parts, BrokerConnection brokerConn) throws IOException {
-        String topicId = parts[1];
-        String message = parts[2];
-        String messageId = parts[3];
-        String sourcePort = parts[4];
-        if (!processedMessages.contains(messageId)) {
-            processedMessages.add(messageId);
-            System.out.println("Received broadcast message for topic " + topicId + ": " + message);
-            handleMessageBroadcast(topicId, message, sourcePort, messageId);
+    // Split a BROADCAST_MESSAGE line into its fields; public so the benchmarks measure this very code
+    public static Broadcast parseBroadcast(String[] parts) {
+        // BROADCAST_MESSAGE|topicId|message|messageId|origin|epoch|sequence; the message itself may contain '|'
+        return new Broadcast(parts[1], String.join("|", Arrays.copyOfRange(parts, 2, parts.length - 4)),
+                parts[parts.length - 4], parts[parts.length - 3], Long.parseLong(parts[parts.length - 2]),
+                Long.parseLong(parts[parts.length - 1]));
+    }
+
+    private void handleBroadcastMessage(String[] parts, BrokerConnection brokerConn) {
+        Broadcast broadcast = parseBroadcast(parts);
+        String topicId = broadcast.topicId;
+        String message = broadcast.message;
+        String messageId = broadcast.messageId;
+        String origin = broadcast.origin;
+        long epoch = broadcast.epoch;
+        long sequence = broadcast.sequence;
+        Shard shard = shardFor(topicId);
+        if (!shard.processedMessages.add(messageId)) {
+            metrics.dedupHit();
+        } else {
+            metrics.messageIn(topicId);
+            if (brokerLogger.isDebugEnabled()) {
+                brokerLogger.debug("Received broadcast message for topic " + topicId + " (seq " + sequence + "): " + message);
+            }
+            handleMessageBroadcast(topicId, message, origin, epoch, messageId, sequence);
             // 处理消息，例如发送给订阅者
-            Topic topic = topics.get(topicId);
-            if (topic != null) {
-                for (String subscriber : topic.subscribers) {
-                    try {
-                        Socket subscriberSocket = subscriberSockets.get(subscriber);
-                        if (subscriberSocket != null && subscriberSocket.isConnected()) {
-                            PrintWriter out = new PrintWriter(subscriberSocket.getOutputStream(), true);
-                            out.println(message);
-                        }
-                    } catch (IOException e) {
-                        System.out.println("Error sending message to subscriber: " + subscriber);
-                        e.printStackTrace();
-                    }
-                }
+            ReorderBuffer buffer = shard.reorderBuffers
+                    .computeIfAbsent(topicId, k -> new HashMap<>())
+                    .computeIfAbsent(origin, k -> new ReorderBuffer());
+            buffer.offer(epoch, sequence, message, msg -> deliverToLocalSubscribers(topicId, msg));
+        }
+    }
+
+    // Forward a broadcast message to the subscribers connected to this broker
+    private void deliverToLocalSubscribers(String topicId, String message) {
+        Topic topic = topics.get(topicId);
+        if (topic != null) {
+            fanOut(topic, message);
+        }
+    }
+
+    // Send a message to every local subscriber of the topic, recording how long the fan-out took
+    private void fanOut(Topic topic, String message) {
+        long start = System.nanoTime();
+        int sent = 0;
+        for (String subscriber : topic.subscribers) {
+            Socket subscriberSocket = subscriberSockets.get(subscriber);
+            if (subscriberSocket == null || !subscriberSocket.isConnected()) {
+                continue;
+            }
+            metrics.sendStarted(subscriber);
+            try {
+                messageHandler.sendMessage(subscriberSocket, message);
+                sent++;
+            } catch (IOException e) {
+                brokerLogger.error("Error sending message to subscriber: " + subscriber, e);
+            } finally {
+                metrics.sendFinished(subscriber);
+            }
+        }
+        metrics.messagesOut(topic.id, sent);
+        metrics.fanOut(System.nanoTime() - start);
+    }
+
+    // Release buffered messages whose gap has been open longer than REORDER_TIMEOUT_MS
+    private void expireReorderGaps(Shard shard) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Map<String, ReorderBuffer>> entry : shard.reorderBuffers.entrySet()) {
+            String topicId = entry.getKey();
+            for (ReorderBuffer buffer : entry.getValue().values()) {
+                buffer.expire(now, msg -> deliverToLocalSubscribers(topicId, msg));
             }
         }
     }
 
     private int getLocalSubscriberCount(String topicId) {
         Topic topic = topics.get(topicId);
-        return topic != null ? topic.subscribers.size() : 0;
+        return topic != null ? topic.subscriberCount : 0;
     }
 
     // Handle publisher requests
@@ -180,69 +381,85 @@ public class broker {
                     case "CREATE_TOPIC":
                         String topicId = reader.readLine();
                         String topicName = reader.readLine();
-                        String response = createTopic(topicId, topicName, publisherName);
-                        messageHandler.sendMessage(publisherSockets.get(publisherName), response);
+                        shardFor(topicId).submit(() ->
+                                sendToPublisher(publisherName, createTopic(topicId, topicName, publisherName)));
                         break;
                     case "PUBLISH_MESSAGE":
                         String msgTopicId = reader.readLine();
                         String message = reader.readLine();
-                        publishMessage(msgTopicId, message, publisherName);
+                        shardFor(msgTopicId).submit(() -> publishMessage(msgTopicId, message, publisherName));
                         break;
                     case "SHOW_SUBSCRIBER_COUNT":
-                        System.out.println("Received SHOW_SUBSCRIBER_COUNT request from publisher: " + publisherName);
+                        if (brokerLogger.isDebugEnabled()) {
+                            brokerLogger.debug("Received SHOW_SUBSCRIBER_COUNT request from publisher: " + publisherName);
+                        }
                         String showTopicId = reader.readLine();
-                        System.out.println("Requested topic ID: " + showTopicId);
+                        if (brokerLogger.isDebugEnabled()) {
+                            brokerLogger.debug("Requested topic ID: " + showTopicId);
+                        }
                         Topic topic = topics.get(showTopicId);
                         if (topic != null && topic.publisherName.equals(publisherName)) {
-                            int totalCount = topic.subscribers.size();
-                            System.out.println("Local subscriber count: " + totalCount);
-                            System.out.println("Other broker count: " + otherBrokers.size());
+                            int totalCount = topic.subscriberCount;
+                            Set<Integer> queriedBrokers = new HashSet<>();
+                            if (brokerLogger.isDebugEnabled()) {
+                                brokerLogger.debug("Local subscriber count: " + totalCount);
+                                brokerLogger.debug("Other broker count: " + otherBrokers.size());
+                            }
                             for (Map.Entry<Integer, BrokerConnection> entry : otherBrokers.entrySet()) {
                                 int brokerPort = entry.getKey();
                                 if (!queriedBrokers.contains(brokerPort)) {
                                     try {
                                         BrokerConnection brokerConn = entry.getValue();
-                                        brokerConn.writer.println("GET_SUBSCRIBER_COUNT|" + showTopicId);
-                                        String brokerResponse = brokerConn.reader.readLine();
-                                        System.out.println("Response from broker " + brokerPort + ": " + brokerResponse);
+                                        String brokerResponse;
+                                        // Several publisher threads may query the same peer; keep request and reply paired
+                                        synchronized (brokerConn) {
+                                            long sentAt = System.nanoTime();
+                                            brokerConn.writer.println("GET_SUBSCRIBER_COUNT|" + showTopicId);
+                                            brokerResponse = brokerConn.reader.readLine();
+                                            metrics.peerRoundTrip(brokerPort, System.nanoTime() - sentAt);
+                                        }
+                                        if (brokerLogger.isDebugEnabled()) {
+                                            brokerLogger.debug("Response from broker " + brokerPort + ": " + brokerResponse);
+                                        }
                                         
                                         if (brokerResponse != null && !brokerResponse.startsWith("ERROR")) {
                                             try {
                                                 int count = Integer.parseInt(brokerResponse.trim());
                                                 totalCount += count;
                                             } catch (NumberFormatException e) {
-                                                System.out.println("Invalid response from broker " + brokerPort + ": " + brokerResponse);
+                                                brokerLogger.warn("Invalid response from broker " + brokerPort + ": " + brokerResponse);
                                             }
                                         }
                                         
                                         queriedBrokers.add(brokerPort);
                                     } catch (IOException e) {
-                                        System.out.println("Error getting subscriber count from broker: " + brokerPort);
-                                        e.printStackTrace();
+                                        brokerLogger.error("Error getting subscriber count from broker: " + brokerPort, e);
                                     }
                                 }
                             }
-                            response = showTopicId + "|" + topic.name + "|" + totalCount;
-                            System.out.println("Sending response to publisher: " + response);
+                            String response = showTopicId + "|" + topic.name + "|" + totalCount;
+                            if (brokerLogger.isDebugEnabled()) {
+                                brokerLogger.debug("Sending response to publisher: " + response);
+                            }
                             messageHandler.sendMessage(publisherSockets.get(publisherName), response);
                             messageHandler.sendMessage(publisherSockets.get(publisherName), "END");
                         } else {
-                            System.out.println("Topic not found or not owned by this publisher");
+                            brokerLogger.warn("Topic not found or not owned by this publisher");
                             messageHandler.sendMessage(publisherSockets.get(publisherName), "ERROR: Topic not found or not owned by this publisher");
                             messageHandler.sendMessage(publisherSockets.get(publisherName), "END");
                         }
-                        queriedBrokers.clear();
                         break;
                     case "DELETE_TOPIC":
                         String delTopicId = reader.readLine();
-                        deleteTopic(delTopicId);
-                        messageHandler.sendMessage(publisherSockets.get(publisherName), "Topic deleted");
+                        shardFor(delTopicId).submit(() -> {
+                            deleteTopic(delTopicId);
+                            sendToPublisher(publisherName, "Topic deleted");
+                        });
                         break;
                 }
             }
         } catch (IOException e) {
-            System.out.println("Error handling publisher: " + publisherName);
-            e.printStackTrace();
+            brokerLogger.error("Error handling publisher: " + publisherName, e);
         }
     }
 
@@ -263,20 +480,28 @@ public class broker {
                         break;
                     case "SUBSCRIBE_TOPIC":
                         String subTopicId = reader.readLine();
-                        subscribeTopic(subTopicId, subscriberName);
+                        shardFor(subTopicId).submit(() -> subscribeTopic(subTopicId, subscriberName));
                         break;
                     case "UNSUBSCRIBE_TOPIC":
                         String unsubTopicId = reader.readLine();
-                        unsubscribeTopic(unsubTopicId, subscriberName);
+                        shardFor(unsubTopicId).submit(() -> unsubscribeTopic(unsubTopicId, subscriberName));
                         break;
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            brokerLogger.error("Error handling subscriber: " + subscriberName, e);
         }
     }
 
-    // Create a new topic
+    private void sendToPublisher(String publisherName, String response) {
+        try {
+            messageHandler.sendMessage(publisherSockets.get(publisherName), response);
+        } catch (IOException e) {
+            brokerLogger.error("Error sending response to publisher: " + publisherName, e);
+        }
+    }
+
+    // Create a new topic (runs on the topic's shard, as do the topic operations below)
     public String createTopic(String topicId, String topicName, String publisherName) {
         if (topics.containsKey(topicId)) {
             return "ERROR: Topic ID already exists";
@@ -290,32 +515,27 @@ public class broker {
     public void publishMessage(String topicId, String message, String publisherName) {
         Topic topic = topics.get(topicId);
         if (topic != null) {
+            metrics.messageIn(topicId);
             String formattedMessage = messageHandler.formatMessage(topicId, topic.name, publisherName, message);
-            System.out.println("Publishing message to topic " + topicId + ": " + formattedMessage);
-            handleMessageBroadcast(topicId, formattedMessage, String.valueOf(this.port), null);
-            for (String subscriber : topic.subscribers) {
-                try {
-                    Socket subscriberSocket = subscriberSockets.get(subscriber);
-                    messageHandler.sendMessage(subscriberSocket, formattedMessage);
-                } catch (IOException e) {
-                    System.out.println("Error sending message to subscriber: " + subscriber);
-                    e.printStackTrace();
-                }
+            long sequence = ++topic.sequence;
+            if (brokerLogger.isDebugEnabled()) {
+                brokerLogger.debug("Publishing message to topic " + topicId + " (seq " + sequence + "): " + formattedMessage);
             }
+            handleMessageBroadcast(topicId, formattedMessage, origin, epoch, null, sequence);
+            fanOut(topic, formattedMessage);
             // 发送成功消息给发布者
             try {
                 Socket publisherSocket = publisherSockets.get(publisherName);
                 messageHandler.sendMessage(publisherSocket, "SUCCESS: Message published");
             } catch (IOException e) {
-                System.out.println("Error sending success message to publisher: " + publisherName);
-                e.printStackTrace();
+                brokerLogger.error("Error sending success message to publisher: " + publisherName, e);
             }
         } else {
-            System.out.println("Topic not found: " + topicId);
+            brokerLogger.warn("Topic not found: " + topicId);
             try {
                 messageHandler.sendMessage(publisherSockets.get(publisherName), "ERROR: Topic not found");
             } catch (IOException e) {
-                e.printStackTrace();
+                brokerLogger.error("Error sending error response to publisher: " + publisherName, e);
             }
         }
     }
@@ -331,6 +551,8 @@ public class broker {
     // Delete a topic
     public void deleteTopic(String topicId) {
         Topic topic = topics.remove(topicId);
+        shardFor(topicId).reorderBuffers.remove(topicId);
+        metrics.removeTopic(topicId);
         if (topic != null) {
             // Notify subscribers
             for (String subscriber : topic.subscribers) {
@@ -338,7 +560,7 @@ public class broker {
                     Socket subscriberSocket = subscriberSockets.get(subscriber);
                     messageHandler.sendMessage(subscriberSocket, "TOPIC_DELETED|" + topicId + "|" + topic.name);
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    brokerLogger.error("Error notifying subscriber of topic deletion: " + subscriber, e);
                 }
             }
             
@@ -352,35 +574,41 @@ public class broker {
         Topic topic = topics.get(topicId);
         if (topic != null) {
             topic.subscribers.add(subscriberName);
+            topic.subscriberCount = topic.subscribers.size();
             showSubscriberCount(topicId);
             try {
                 Socket subscriberSocket = subscriberSockets.get(subscriberName);
                 messageHandler.sendMessage(subscriberSocket, "SUCCESS|" + topic.name + "|" + topic.publisherName + "|" + topicId);
             } catch (IOException e) {
-                e.printStackTrace();
+                brokerLogger.error("Error confirming subscription to subscriber: " + subscriberName, e);
             }
         } else {
             try {
                 Socket subscriberSocket = subscriberSockets.get(subscriberName);
                 messageHandler.sendMessage(subscriberSocket, "FAILED|Topic not found");
             } catch (IOException e) {
-                e.printStackTrace();
+                brokerLogger.error("Error sending subscription failure to subscriber: " + subscriberName, e);
             }
         }
     }
 
     // Unsubscribe from a topic
     public void unsubscribeTopic(String topicId, String subscriberName) {
-        System.out.println("Attempting to unsubscribe " + subscriberName + " from topic " + topicId);
+        if (brokerLogger.isDebugEnabled()) {
+            brokerLogger.debug("Attempting to unsubscribe " + subscriberName + " from topic " + topicId);
+        }
         Topic topic = topics.get(topicId);
         if (topic != null) {
             boolean removed = topic.subscribers.remove(subscriberName);
-            System.out.println("Subscriber removed from topic: " + removed);
+            topic.subscriberCount = topic.subscribers.size();
+            if (brokerLogger.isDebugEnabled()) {
+                brokerLogger.debug("Subscriber removed from topic: " + removed);
+            }
             try {
                 Socket subscriberSocket = subscriberSockets.get(subscriberName);
                 messageHandler.sendMessage(subscriberSocket, removed ? "SUCCESS" : "FAILED|Not subscribed to this topic");
             } catch (IOException e) {
-                e.printStackTrace();
+                brokerLogger.error("Error confirming unsubscription to subscriber: " + subscriberName, e);
             }
             
             // Synchronize with other brokers
@@ -388,17 +616,16 @@ public class broker {
                 try {
                     brokerConn.writer.println("SYNC_UNSUBSCRIBE|" + topicId + "|" + subscriberName);
                 } catch (Exception e) {
-                    System.out.println("Error syncing unsubscribe with other broker");
-                    e.printStackTrace();
+                    brokerLogger.error("Error syncing unsubscribe with other broker", e);
                 }
             }
         } else {
-            System.out.println("Topic not found: " + topicId);
+            brokerLogger.warn("Topic not found: " + topicId);
             try {
                 Socket subscriberSocket = subscriberSockets.get(subscriberName);
                 messageHandler.sendMessage(subscriberSocket, "FAILED: Topic not found");
             } catch (IOException e) {
-                e.printStackTrace();
+                brokerLogger.error("Error sending unsubscription failure to subscriber: " + subscriberName, e);
             }
         }
     }
@@ -409,7 +636,10 @@ public class broker {
         Topic topic = topics.get(topicId);
         if (topic != null) {
             topic.subscribers.remove(subscriberName);
-            System.out.println("Synced unsubscribe: " + subscriberName + " from topic " + topicId);
+            topic.subscriberCount = topic.subscribers.size();
+            if (brokerLogger.isDebugEnabled()) {
+                brokerLogger.debug("Synced unsubscribe: " + subscriberName + " from topic " + topicId);
+            }
         }
     }
 
@@ -418,7 +648,11 @@ public class broker {
         String id;
         String name;
         String publisherName;
+        // Owned by the topic's shard thread; other threads only read subscriberCount
         Set<String> subscribers;
+        volatile int subscriberCount;
+        // Sequence stamped on messages published through this broker
+        long sequence;
 
         Topic(String id, String name, String publisherName) {
             this.id = id;
@@ -428,6 +662,25 @@ public class broker {
         }
     }
 
+    // The fields of a BROADCAST_MESSAGE line
+    public static class Broadcast {
+        final String topicId;
+        final String message;
+        final String messageId;
+        final String origin;
+        final long epoch;
+        final long sequence;
+
+        Broadcast(String topicId, String message, String messageId, String origin, long epoch, long sequence) {
+            this.topicId = topicId;
+            this.message = message;
+            this.messageId = messageId;
+            this.origin = origin;
+            this.epoch = epoch;
+            this.sequence = sequence;
+        }
+    }
+
     // Main method to run the broker
     public static void main(String[] args) {
         if (args.length < 1) {
@@ -451,12 +704,12 @@ public class broker {
             }
         }
 
-        System.out.println("Broker starting on port " + port);
+        brokerLogger.info("Broker starting on port " + port);
         brokerInstance.start();
     }
 
     public void connectToBroker(String brokerName, String ip, int port) {
-        System.out.println("等待连接到 broker " + brokerName + " at " + ip + ":" + port);
+        brokerLogger.info("等待连接到 broker " + brokerName + " at " + ip + ":" + port);
         connectionExecutor.submit(() -> {
             while (true) {
                 try {
@@ -465,7 +718,7 @@ public class broker {
                     out.println("BROKER");
                     out.println(this.port); // 发送自己的端口号作为标识
                     otherBrokers.put(port, new BrokerConnection(socket));
-                    System.out.println("成功连接到 broker " + brokerName + " at " + ip + ":" + port);
+                    brokerLogger.info("成功连接到 broker " + brokerName + " at " + ip + ":" + port);
 
                     // 连接成功后，同步现有的topics
                     for (Topic topic : topics.values()) {
@@ -491,24 +744,24 @@ public class broker {
             try {
                 brokerConn.writer.println("SYNC_TOPIC|" + topicId + "|" + topicName + "|" + publisherName);
             } catch (Exception e) {
-                System.out.println("Error broadcasting new topic to broker");
-                e.printStackTrace();
+                brokerLogger.error("Error broadcasting new topic to broker", e);
             }
         }
     }
-    public void handleMessageBroadcast(String topicId, String message, String sourcePort, String messageId) {
+    public void handleMessageBroadcast(String topicId, String message, String origin, long epoch, String messageId,
+                                       long sequence) {
         if (messageId == null) {
             messageId = UUID.randomUUID().toString();
         }
-        if (!processedMessages.contains(messageId)) {
-            processedMessages.add(messageId);
-            System.out.println("Broadcasting message to other brokers: " + message);
+        if (shardFor(topicId).processedMessages.add(messageId)) {
+            if (brokerLogger.isDebugEnabled()) {
+                brokerLogger.debug("Broadcasting message to other brokers: " + message);
+            }
             for (BrokerConnection brokerConn : otherBrokers.values()) {
                 try {
-                    brokerConn.writer.println("BROADCAST_MESSAGE|" + topicId + "|" + message + "|" + messageId + "|" + sourcePort);
+                    brokerConn.writer.println("BROADCAST_MESSAGE|" + topicId + "|" + message + "|" + messageId + "|" + origin + "|" + epoch + "|" + sequence);
                 } catch (Exception e) {
-                    System.out.println("Error broadcasting new message to broker");
-                    e.printStackTrace();
+                    brokerLogger.error("Error broadcasting new message to broker", e);
                 }
             }
         }
@@ -519,14 +772,15 @@ public class broker {
             try {
                 brokerConn.writer.println("DELETE_TOPIC|" + topicId);
             } catch (Exception e) {
-                System.out.println("Error broadcasting topic deletion to broker");
-                e.printStackTrace();
+                brokerLogger.error("Error broadcasting topic deletion to broker", e);
             }
         }
     }
 
     private void handleDeleteTopic(String topicId) {
         Topic topic = topics.remove(topicId);
+        shardFor(topicId).reorderBuffers.remove(topicId);
+        metrics.removeTopic(topicId);
         if (topic != null) {
             // Notify subscribers
             for (String subscriber : topic.subscribers) {
@@ -534,10 +788,10 @@ public class broker {
                     Socket subscriberSocket = subscriberSockets.get(subscriber);
                     messageHandler.sendMessage(subscriberSocket, "TOPIC_DELETED|" + topicId + "|" + topic.name);
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    brokerLogger.error("Error notifying subscriber of topic deletion: " + subscriber, e);
                 }
             }
         }
-        System.out.println("Deleted topic: " + topicId + " due to broadcast from another broker");
+        brokerLogger.info("Deleted topic: " + topicId + " due to broadcast from another broker");
     }
 }
\ No newline at end of file
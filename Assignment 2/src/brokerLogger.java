@@ -0,0 +1,96 @@
+/*
+ * This class is a leveled, asynchronous logger for the broker.
+ * Lines are handed to a background writer through a bounded queue, so logging never blocks a shard on the console.
+ * The level is fixed at startup (-Dbroker.log.level=DEBUG|INFO|WARN|ERROR, default INFO); guard expensive
+ * messages with isDebugEnabled(), which the JIT folds to a constant, so disabled logging costs nothing.
+ */
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.LocalTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+public class brokerLogger {
+    private static final int DEBUG = 0;
+    private static final int INFO = 1;
+    private static final int WARN = 2;
+    private static final int ERROR = 3;
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static final int LEVEL = parseLevel(System.getProperty("broker.log.level", "INFO"));
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+
+    static {
+        Thread writer = new Thread(brokerLogger::drain, "broker-logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private brokerLogger() {
+    }
+
+    public static boolean isDebugEnabled() {
+        return LEVEL <= DEBUG;
+    }
+
+    public static void debug(String message) {
+        if (LEVEL <= DEBUG) {
+            enqueue(DEBUG, message);
+        }
+    }
+
+    public static void info(String message) {
+        if (LEVEL <= INFO) {
+            enqueue(INFO, message);
+        }
+    }
+
+    public static void warn(String message) {
+        if (LEVEL <= WARN) {
+            enqueue(WARN, message);
+        }
+    }
+
+    public static void error(String message, Throwable cause) {
+        if (LEVEL <= ERROR) {
+            StringWriter trace = new StringWriter();
+            cause.printStackTrace(new PrintWriter(trace));
+            enqueue(ERROR, message + System.lineSeparator() + trace);
+        }
+    }
+
+    // Lines discarded because the writer could not keep up
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private static void enqueue(int level, String message) {
+        if (!queue.offer(LocalTime.now() + " " + LEVEL_NAMES[level] + " [" + Thread.currentThread().getName() + "] " + message)) {
+            dropped.increment();
+        }
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                // Read System.out each time so a redirected stream is honoured
+                System.out.println(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static int parseLevel(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return INFO;
+    }
+}
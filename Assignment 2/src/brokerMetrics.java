@@ -0,0 +1,232 @@
+/*
+ * This class collects the broker's runtime metrics.
+ * Counters are striped LongAdders and latencies go into latencyHistograms, so recording from many shard threads
+ * never contends. The same numbers are exposed through JMX and as plain text on a local scrape port.
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.ObjectName;
+
+public class brokerMetrics implements brokerMetricsMXBean {
+    private final int port;
+    private final Map<String, LongAdder> topicIn = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> topicOut = new ConcurrentHashMap<>();
+    // Only subscribers with a write in progress have an entry, so the map does not grow with subscriber churn
+    private final Map<String, Long> outboundPending = new ConcurrentHashMap<>();
+    private final Map<Integer, latencyHistogram> peerRtt = new ConcurrentHashMap<>();
+    private final latencyHistogram fanOutLatency = new latencyHistogram();
+    private final LongAdder dedupHits = new LongAdder();
+    private final IntSupplier publisherConnections;
+    private final IntSupplier subscriberConnections;
+    private final IntSupplier peerConnections;
+    private final int maxPublishers;
+    private final int maxSubscribers;
+
+    public brokerMetrics(int port, IntSupplier publisherConnections, int maxPublishers,
+                         IntSupplier subscriberConnections, int maxSubscribers, IntSupplier peerConnections) {
+        this.port = port;
+        this.publisherConnections = publisherConnections;
+        this.maxPublishers = maxPublishers;
+        this.subscriberConnections = subscriberConnections;
+        this.maxSubscribers = maxSubscribers;
+        this.peerConnections = peerConnections;
+    }
+
+    public void messageIn(String topicId) {
+        topicIn.computeIfAbsent(topicId, k -> new LongAdder()).increment();
+    }
+
+    public void messagesOut(String topicId, int count) {
+        topicOut.computeIfAbsent(topicId, k -> new LongAdder()).add(count);
+    }
+
+    public void fanOut(long nanos) {
+        fanOutLatency.record(nanos);
+    }
+
+    // Sends are synchronous, so the "queue" is the writes currently blocked on this subscriber's socket
+    public void sendStarted(String subscriber) {
+        outboundPending.merge(subscriber, 1L, Long::sum);
+    }
+
+    public void sendFinished(String subscriber) {
+        outboundPending.computeIfPresent(subscriber, (k, pending) -> pending > 1 ? pending - 1 : null);
+    }
+
+    public void dedupHit() {
+        dedupHits.increment();
+    }
+
+    public void peerRoundTrip(int peerPort, long nanos) {
+        peerRtt.computeIfAbsent(peerPort, k -> new latencyHistogram()).record(nanos);
+    }
+
+    public void removeTopic(String topicId) {
+        topicIn.remove(topicId);
+        topicOut.remove(topicId);
+    }
+
+    // Register with the platform MBean server and, if scrapePort > 0, serve text metrics on localhost
+    public void expose(int scrapePort) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("broker:type=Metrics,port=" + port));
+        } catch (Exception e) {
+            brokerLogger.error("Could not register broker metrics with JMX", e);
+        }
+        if (scrapePort > 0) {
+            Thread scraper = new Thread(() -> serveScrapes(scrapePort), "broker-" + port + "-metrics");
+            scraper.setDaemon(true);
+            scraper.start();
+        }
+    }
+
+    private void serveScrapes(int scrapePort) {
+        try (ServerSocket serverSocket = new ServerSocket(scrapePort, 16, InetAddress.getLoopbackAddress())) {
+            brokerLogger.info("Metrics available on localhost:" + scrapePort);
+            while (true) {
+                try (Socket client = serverSocket.accept();
+                     Writer out = new OutputStreamWriter(client.getOutputStream())) {
+                    out.write(render());
+                } catch (IOException e) {
+                    brokerLogger.warn("Error serving metrics scrape: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            brokerLogger.error("Could not open metrics port " + scrapePort, e);
+        }
+    }
+
+    // One "name{labels} value" line per sample
+    public String render() {
+        StringBuilder text = new StringBuilder();
+        appendPerKey(text, "broker_topic_messages_in_total", "topic", getTopicMessagesIn());
+        appendPerKey(text, "broker_topic_messages_out_total", "topic", getTopicMessagesOut());
+        appendPerKey(text, "broker_subscriber_outbound_pending", "subscriber", getOutboundPending());
+        text.append("broker_fanout_latency_micros{quantile=\"0.5\"} ").append(getFanOutLatencyP50Micros()).append('\n');
+        text.append("broker_fanout_latency_micros{quantile=\"0.99\"} ").append(getFanOutLatencyP99Micros()).append('\n');
+        text.append("broker_fanout_latency_micros{quantile=\"1\"} ").append(getFanOutLatencyMaxMicros()).append('\n');
+        text.append("broker_fanout_total ").append(fanOutLatency.getCount()).append('\n');
+        appendPerKey(text, "broker_peer_rtt_p99_micros", "peer", getPeerRttP99Micros());
+        text.append("broker_dedup_hits_total ").append(getDedupHits()).append('\n');
+        text.append("broker_publisher_connections ").append(getPublisherConnections()).append('\n');
+        text.append("broker_publisher_connections_max ").append(getMaxPublishers()).append('\n');
+        text.append("broker_subscriber_connections ").append(getSubscriberConnections()).append('\n');
+        text.append("broker_subscriber_connections_max ").append(getMaxSubscribers()).append('\n');
+        text.append("broker_peer_connections ").append(getPeerConnections()).append('\n');
+        text.append("broker_log_dropped_total ").append(getDroppedLogLines()).append('\n');
+        return text.toString();
+    }
+
+    private static void appendPerKey(StringBuilder text, String name, String label, Map<String, ?> values) {
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            text.append(name).append('{').append(label).append("=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> adders) {
+        Map<String, Long> values = new TreeMap<>();
+        adders.forEach((key, adder) -> values.put(key, adder.sum()));
+        return values;
+    }
+
+    private static long total(Map<String, LongAdder> adders) {
+        long sum = 0;
+        for (LongAdder adder : adders.values()) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return total(topicIn);
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return total(topicOut);
+    }
+
+    @Override
+    public Map<String, Long> getTopicMessagesIn() {
+        return sums(topicIn);
+    }
+
+    @Override
+    public Map<String, Long> getTopicMessagesOut() {
+        return sums(topicOut);
+    }
+
+    @Override
+    public double getFanOutLatencyP50Micros() {
+        return fanOutLatency.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getFanOutLatencyP99Micros() {
+        return fanOutLatency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getFanOutLatencyMaxMicros() {
+        return fanOutLatency.getMax() / 1000.0;
+    }
+
+    @Override
+    public Map<String, Long> getOutboundPending() {
+        return new TreeMap<>(outboundPending);
+    }
+
+    @Override
+    public long getDedupHits() {
+        return dedupHits.sum();
+    }
+
+    @Override
+    public Map<String, Double> getPeerRttP99Micros() {
+        Map<String, Double> values = new TreeMap<>();
+        peerRtt.forEach((peer, histogram) -> values.put(String.valueOf(peer), histogram.getValueAtPercentile(99) / 1000.0));
+        return values;
+    }
+
+    @Override
+    public int getPublisherConnections() {
+        return publisherConnections.getAsInt();
+    }
+
+    @Override
+    public int getMaxPublishers() {
+        return maxPublishers;
+    }
+
+    @Override
+    public int getSubscriberConnections() {
+        return subscriberConnections.getAsInt();
+    }
+
+    @Override
+    public int getMaxSubscribers() {
+        return maxSubscribers;
+    }
+
+    @Override
+    public int getPeerConnections() {
+        return peerConnections.getAsInt();
+    }
+
+    @Override
+    public long getDroppedLogLines() {
+        return brokerLogger.getDroppedCount();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * JMX view of brokerMetrics, registered as broker:type=Metrics,port=<port>.
+ * Latencies are in microseconds.
+ */
+
+import java.util.Map;
+
+public interface brokerMetricsMXBean {
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    Map<String, Long> getTopicMessagesIn();
+
+    Map<String, Long> getTopicMessagesOut();
+
+    double getFanOutLatencyP50Micros();
+
+    double getFanOutLatencyP99Micros();
+
+    double getFanOutLatencyMaxMicros();
+
+    Map<String, Long> getOutboundPending();
+
+    long getDedupHits();
+
+    Map<String, Double> getPeerRttP99Micros();
+
+    int getPublisherConnections();
+
+    int getMaxPublishers();
+
+    int getSubscriberConnections();
+
+    int getMaxSubscribers();
+
+    int getPeerConnections();
+
+    long getDroppedLogLines();
+}
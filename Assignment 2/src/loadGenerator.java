@@ -0,0 +1,309 @@
+/*
+ * Headless load generator for the pub/sub cluster.
+ * Starts K brokers on loopback ports through broker.main (full mesh, same "-b" argument format), connects
+ * M simulated publishers and N simulated subscribers over the real protocol, drives a fixed publish rate and
+ * reports end-to-end publish-to-delivery latency percentiles and sustained throughput.
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class loadGenerator {
+    private static final String MARKER = " LG ";
+    private static final long SUBSCRIBE_TIMEOUT_MS = 30000;
+
+    private int brokers = 3;
+    private int publishers = 3;
+    private int subscribers = 6;
+    private int rate = 1000;
+    private int durationSeconds = 10;
+    private int warmupSeconds = 2;
+    private int basePort = 9000;
+    private long settleMillis = 6000;
+    private boolean verbose = false;
+
+    private final latencyHistogram latency = new latencyHistogram();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong publishErrors = new AtomicLong();
+    private volatile boolean recording = false;
+    // Messages stamped at or after this are counted, whenever they are delivered; set before the drivers start
+    private volatile long recordingFrom = Long.MAX_VALUE;
+    private volatile boolean running = true;
+
+    public static void main(String[] args) {
+        loadGenerator generator = new loadGenerator();
+        try {
+            generator.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: java loadGenerator [-brokers K] [-publishers M] [-subscribers N] [-rate msgs/s]"
+                    + " [-duration s] [-warmup s] [-port basePort] [-settle ms] [-verbose]");
+            return;
+        }
+        try {
+            generator.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        // Brokers run on non-daemon threads in this JVM
+        System.exit(0);
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-verbose")) {
+                verbose = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            int value = Integer.parseInt(args[++i]);
+            switch (option) {
+                case "-brokers": brokers = value; break;
+                case "-publishers": publishers = value; break;
+                case "-subscribers": subscribers = value; break;
+                case "-rate": rate = value; break;
+                case "-duration": durationSeconds = value; break;
+                case "-warmup": warmupSeconds = value; break;
+                case "-port": basePort = value; break;
+                case "-settle": settleMillis = value; break;
+                default: throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        // Same per-broker limits the broker enforces on connect
+        if (publishers > brokers * 5 || subscribers > brokers * 10) {
+            throw new IllegalArgumentException("At most 5 publishers and 10 subscribers per broker");
+        }
+        if (brokers < 1 || publishers < 1 || rate < 1) {
+            throw new IllegalArgumentException("Need at least one broker, one publisher and a positive rate");
+        }
+    }
+
+    private void run() throws Exception {
+        PrintStream report = System.out;
+        if (!verbose) {
+            // The brokers share this JVM; keep their per-message logging out of the report
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        startBrokers();
+        report.println("Started " + brokers + " brokers on ports " + basePort + "-" + (basePort + brokers - 1)
+                + ", waiting " + settleMillis + " ms for the mesh to connect");
+        Thread.sleep(settleMillis);
+
+        List<SimulatedPublisher> pubs = new ArrayList<>();
+        for (int i = 0; i < publishers; i++) {
+            pubs.add(new SimulatedPublisher(i, basePort + i % brokers));
+        }
+        List<SimulatedSubscriber> subs = new ArrayList<>();
+        for (int i = 0; i < subscribers; i++) {
+            SimulatedSubscriber sub = new SimulatedSubscriber(i, basePort + i % brokers);
+            for (SimulatedPublisher pub : pubs) {
+                sub.subscribe(pub.topicId);
+            }
+            subs.add(sub);
+        }
+        report.println("Connected " + publishers + " publishers and " + subscribers + " subscribers, "
+                + "driving " + rate + " msgs/s for " + warmupSeconds + " s warm-up + " + durationSeconds + " s");
+
+        List<Thread> drivers = new ArrayList<>();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * publishers / rate;
+        long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        recordingFrom = start;
+        for (SimulatedPublisher pub : pubs) {
+            Thread driver = new Thread(() -> pub.drive(intervalNanos), "lg-driver-" + pub.index);
+            driver.setDaemon(true);
+            drivers.add(driver);
+            driver.start();
+        }
+
+        TimeUnit.NANOSECONDS.sleep(start - System.nanoTime());
+        latency.reset();
+        recording = true;
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        running = false;
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+        long publishedCount = published.get();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        // Let in-flight messages land before reading the delivery count
+        Thread.sleep(2000);
+        recording = false;
+        long deliveredCount = delivered.get();
+
+        report.println();
+        report.printf("Published:  %d (%.0f msgs/s)%n", publishedCount, publishedCount / elapsedSeconds);
+        report.printf("Delivered:  %d of %d expected (%.0f msgs/s)%n",
+                deliveredCount, publishedCount * subscribers, deliveredCount / elapsedSeconds);
+        report.printf("Errors:     %d%n", publishErrors.get());
+        report.println("Publish-to-delivery latency (us):");
+        report.printf("  mean   %10.1f%n", latency.getMean() / 1000);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            report.printf("  p%-5s %10.1f%n", percentile == 99.9 ? "99.9" : String.valueOf((int) percentile),
+                    latency.getValueAtPercentile(percentile) / 1000.0);
+        }
+        report.printf("  max    %10.1f%n", latency.getMax() / 1000.0);
+    }
+
+    private void startBrokers() throws InterruptedException {
+        for (int i = 0; i < brokers; i++) {
+            List<String> args = new ArrayList<>();
+            args.add(String.valueOf(basePort + i));
+            if (brokers > 1) {
+                args.add("-b");
+                for (int j = 0; j < brokers; j++) {
+                    if (j != i) {
+                        args.add("localhost:" + (basePort + j));
+                    }
+                }
+            }
+            Thread brokerThread = new Thread(() -> broker.main(args.toArray(new String[0])), "lg-broker-" + i);
+            brokerThread.start();
+        }
+        for (int i = 0; i < brokers; i++) {
+            awaitListening(basePort + i);
+        }
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("localhost", port), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // A publisher that owns one topic and publishes to it at a fixed pace
+    private class SimulatedPublisher {
+        final int index;
+        final String topicId;
+        final PrintWriter out;
+        final BufferedReader in;
+
+        SimulatedPublisher(int index, int port) throws IOException {
+            this.index = index;
+            this.topicId = "lg-t" + index;
+            Socket socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out.println("PUBLISHER");
+            out.println("lg-pub-" + index);
+            out.println("CREATE_TOPIC");
+            out.println(topicId);
+            out.println("load" + index);
+            out.flush();
+            String response = in.readLine();
+            if (response == null || !response.startsWith("SUCCESS")) {
+                throw new IOException("Could not create topic " + topicId + ": " + response);
+            }
+            Thread acknowledgements = new Thread(this::readAcknowledgements, "lg-acks-" + index);
+            acknowledgements.setDaemon(true);
+            acknowledgements.start();
+        }
+
+        // Latency is measured from the scheduled send time, so a stalled broker cannot hide its own delay
+        void drive(long intervalNanos) {
+            long sequence = 0;
+            long next = System.nanoTime();
+            while (running) {
+                long now = System.nanoTime();
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+                out.println("PUBLISH_MESSAGE");
+                out.println(topicId);
+                out.println(MARKER.trim() + " " + index + " " + sequence++ + " " + next);
+                out.flush();
+                if (next >= recordingFrom) {
+                    published.incrementAndGet();
+                }
+                next += intervalNanos;
+            }
+        }
+
+        private void readAcknowledgements() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith("SUCCESS")) {
+                        publishErrors.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                // Connection closed at shutdown
+            }
+        }
+    }
+
+    // A subscriber that records the latency of every load message it receives
+    private class SimulatedSubscriber {
+        final PrintWriter out;
+        final BufferedReader in;
+        final BlockingQueue<String> responses = new LinkedBlockingQueue<>();
+
+        SimulatedSubscriber(int index, int port) throws IOException {
+            Socket socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            this.out = new PrintWriter(socket.getOutputStream(), true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Thread listener = new Thread(this::listen, "lg-sub-" + index);
+            listener.setDaemon(true);
+            listener.start();
+            out.println("SUBSCRIBER");
+            out.println("lg-sub-" + index);
+        }
+
+        // Topics reach remote brokers through SYNC_TOPIC, so retry until this broker knows the topic
+        void subscribe(String topicId) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + SUBSCRIBE_TIMEOUT_MS;
+            while (true) {
+                out.println("SUBSCRIBE_TOPIC");
+                out.println(topicId);
+                String response = responses.poll(5, TimeUnit.SECONDS);
+                if (response != null && response.startsWith("SUCCESS")) {
+                    return;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Could not subscribe to " + topicId + ": " + response);
+                }
+                Thread.sleep(100);
+            }
+        }
+
+        private void listen() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int marker = line.indexOf(MARKER);
+                    if (marker < 0) {
+                        responses.put(line);
+                        continue;
+                    }
+                    String[] fields = line.substring(marker + MARKER.length()).split(" ");
+                    long sentNanos = Long.parseLong(fields[2]);
+                    if (sentNanos >= recordingFrom) {
+                        delivered.incrementAndGet(); // published during warm-up is neither expected nor counted
+                    }
+                    if (recording) {
+                        latency.record(System.nanoTime() - sentNanos);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Connection closed at shutdown
+            }
+        }
+    }
+}